@@ -0,0 +1,142 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * Steady state allocation test. Once a decoder has been through a clip,
+ * decoding it again must not allocate: Vlc, Decoder and Picture reuse
+ * their tables, buffers and pictures. The clip is decoded once to warm
+ * up, then the decoder seeks back to its first picture and the heap in
+ * use is compared before and after the pictures of the second pass.
+ *
+ * Heap in use is Runtime.totalMemory() - freeMemory(). It is measured
+ * after a gc() before the pass, and at the end both before a gc(), which
+ * catches garbage made on the way, and after one, which catches what is
+ * kept. Both must show no growth.
+ *
+ * After setup, the decoder only allocates a dequantization table the
+ * first time each quantizer_scale is used with each matrix; the warm-up
+ * pass covers every scale of the clip. Seeking allocates too, which is
+ * why the measure starts with the first picture after the seek.
+ *
+ * The clip is an MPEG-1 video stream read as a resource, /video.mpg
+ * as in Player unless another name is given.
+ */
+public class AllocationCheck {
+    private final byte[] mData;
+
+    private StringBuffer mReport = new StringBuffer();
+
+    public AllocationCheck(byte[] data) {
+        mData = data;
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /*
+     * Counts the pictures, and measures the heap around the second pass
+     * once the first one has been counted
+     */
+    private static class Counter extends Queue {
+        Decoder mDecoder;
+
+        int mPictures = 0;
+        int mClip = 0;
+
+        long mBefore;
+        long mAfter;
+        long mKept;
+
+        public void put(Object obj) {
+            ((Picture) obj).release();
+
+            ++mPictures;
+
+            if (mClip == 0)
+                return;
+
+            if (mPictures == mClip) {
+                // Back to the start for the second pass
+                mDecoder.seekToFrame(0);
+            }
+            else if (mPictures == mClip + 1) {
+                Runtime.getRuntime().gc();
+                mBefore = used();
+            }
+            else if (mPictures == 2 * mClip) {
+                mAfter = used();
+
+                Runtime.getRuntime().gc();
+                mKept = used();
+            }
+        }
+    }
+
+    private Decoder createDecoder(Counter counter) throws IOException {
+        Decoder decoder = new Decoder(counter, new InputBitStream(new ArraySource(mData)), null);
+        decoder.setIndex(StreamIndex.build(new InputBitStream(new ArraySource(mData))));
+
+        counter.mDecoder = decoder;
+
+        return decoder;
+    }
+
+    /*
+     * Returns true if the second pass allocated nothing; details are
+     * available from getReport().
+     */
+    public boolean test() throws IOException {
+        mReport.setLength(0);
+
+        // Pictures the decoder sends for the clip
+        Counter clip = new Counter();
+        createDecoder(clip).start();
+
+        if (clip.mPictures < 2) {
+            mReport.append("FAIL the clip needs at least two pictures\n");
+            return false;
+        }
+
+        Counter counter = new Counter();
+        counter.mClip = clip.mPictures;
+
+        createDecoder(counter).start();
+
+        long allocated = counter.mAfter - counter.mBefore;
+        long kept = counter.mKept - counter.mBefore;
+
+        boolean passed = counter.mPictures == 2 * counter.mClip && allocated <= 0 && kept <= 0;
+
+        mReport.append("pictures measured: ").append(counter.mClip - 1).append('\n')
+               .append("allocated: ").append(allocated).append(" bytes\n")
+               .append("kept: ").append(kept).append(" bytes\n")
+               .append(passed? "PASSED\n" : "FAILED\n");
+
+        return passed;
+    }
+
+    public String getReport() {
+        return mReport.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String name = (args.length > 0)? args[0] : "/video.mpg";
+
+        AllocationCheck check = new AllocationCheck(ArraySource.readResource(name));
+        boolean passed = check.test();
+
+        System.out.print(check.getReport());
+
+        if (!passed)
+            System.exit(1);
+    }
+}
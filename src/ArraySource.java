@@ -0,0 +1,82 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * Serves a stream that is already in memory. The whole array is
+ * handed out as a single window, so it is read in place and never
+ * refilled. Seeking just moves the start of that window.
+ */
+public class ArraySource implements SeekableSource {
+    private byte[] mData;
+    private int mOffset;
+    private int mLength;
+
+    private int mPosition = 0;  // Start of the next window
+    private int mWindow   = 0;  // Start of the current window
+
+    public ArraySource(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public ArraySource(byte[] data, int offset, int length) {
+        mData   = data;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    public int read() {
+        if (mPosition >= mLength)
+            return -1;
+
+        mWindow   = mPosition;
+        mPosition = mLength;
+
+        return mLength - mWindow;
+    }
+
+    public void seek(long position) {
+        mPosition = (int)Math.min(position, mLength);
+    }
+
+    public byte[] getBuffer() {
+        return mData;
+    }
+
+    public int getOffset() {
+        return mOffset + mWindow;
+    }
+
+    public void close() {
+        mData = null;
+    }
+
+    /*
+     * Read a whole resource into memory, to be served from an ArraySource
+     */
+    public static byte[] readResource(String name) throws IOException {
+        InputStream input = ArraySource.class.getResourceAsStream(name);
+
+        if (input == null)
+            throw new IOException("No resource " + name);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+
+        try {
+            while ((length = input.read(buffer)) > 0)
+                data.write(buffer, 0, length);
+        }
+        finally {
+            input.close();
+        }
+
+        return data.toByteArray();
+    }
+}
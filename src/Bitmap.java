@@ -7,88 +7,840 @@
 
 /*
  * A Bitmap stores a video frame ready to be displayed
+ *
+ * The frame is cropped to the bitmap size. It can be converted into
+ * mRgb, allocated on first use, or straight into a buffer of the
+ * caller, at a given offset and with a given stride (distance between
+ * lines, in array elements), in one of these formats:
+ *
+ *   ARGB8888   int[], 0xAARRGGBB (alpha 0xff)
+ *   BGRA8888   int[], 0xBBGGRRAA (alpha 0xff)
+ *   RGB888     byte[], three bytes per pixel: R, G, B
+ *   I420       byte[], the Y plane (stride bytes per line), followed by
+ *              the Cb and Cr planes (stride / 2 bytes per line); samples
+ *              are copied unconverted
+ *   RGB565     short[], for 16-bit displays
+ *   RGB444     short[], for 12-bit displays
+ *
+ * The low bit depth formats are ordered dithered with a 4x4 Bayer
+ * matrix, which hides most of the banding on smooth gradients.
+ *
+ * With setScaling(), the RGB formats are resampled to the bitmap size
+ * as they are converted, instead of cropped. I420 is only cropped.
  */
 public class Bitmap {
+    public static final int ARGB8888 = 0;
+    public static final int BGRA8888 = 1;
+    public static final int RGB888   = 2;
+    public static final int I420     = 3;
+    public static final int RGB565   = 4;
+    public static final int RGB444   = 5;
+
+    public static final int FILTER_NONE     = 0;
+    public static final int FILTER_NEAREST  = 1;
+    public static final int FILTER_BILINEAR = 2;
+
     private int mWidth;
     private int mHeight;
 
-    public int[] mRgb;
+    public int[] mRgb = null;
 
     public Bitmap(int width, int height) {
         mWidth  = width;
     	mHeight = height;
 
-    	mRgb = new int[mWidth * mHeight];
+    	setStudioRange(false);
+    }
+
+    /*
+     * Y'CbCr to RGB conversion is table driven. Per chroma sample, the
+     * Cr contribution to R, the Cb contribution to B and the combined
+     * Cb and Cr contribution to G are looked up; per pixel, the luma
+     * value is added to each of them and the sums are saturated by
+     * looking them up in Clamp. Luma values already include the offset
+     * into Clamp.
+     */
+    private static final int CLAMP_OFFSET = 320;
+
+    // Saturation to 0..255 of -CLAMP_OFFSET..1023-CLAMP_OFFSET
+    private static final int[] Clamp = new int[1024];
+
+    // 4x4 ordered dither matrix
+    private static final int[] Bayer = {
+         0,  8,  2, 10,
+        12,  4, 14,  6,
+         3, 11,  1,  9,
+        15,  7, 13,  5
+    };
+
+    /*
+     * For channels of n bits (n = 4, 5, 6), Quant[n] saturates like
+     * Clamp and maps 0..255 to 0..2^n-1, and Dither[n] holds the Bayer
+     * thresholds in steps of that channel, 255 / (2^n - 1)
+     */
+    private static final byte[][] Quant = new byte[7][];
+    private static final int[][] Dither = new int[7][];
+
+    static {
+        for (int i = 0; i < Clamp.length; ++i) {
+            int value = i - CLAMP_OFFSET;
+
+            Clamp[i] = value < 0? 0 : (value > 255? 255 : value);
+        }
+
+        for (int bits = 4; bits <= 6; ++bits) {
+            final int max = (1 << bits) - 1;
+
+            Quant[bits]  = new byte[Clamp.length];
+            Dither[bits] = new int[16];
+
+            for (int i = 0; i < Clamp.length; ++i)
+                Quant[bits][i] = (byte)Math.min(Clamp[i] * max / 255, max);
+
+            for (int i = 0; i < 16; ++i)
+                Dither[bits][i] = (2 * Bayer[i] + 1) * 255 / (32 * max);
+        }
     }
 
-	private final int C1 = 0x166E9;  // 1.402 * 2^16
-	private final int C2 = 0x5819;   // 0.34414 * 2^16
-	private final int C3 = 0xB6D1;   // 0.71414 * 2^16
-	private final int C4 = 0x1C5A1;  // 1.772 * 2^16
+    private final int[] mLuma  = new int[256];
+    private final int[] mCrToR = new int[256];
+    private final int[] mCbToB = new int[256];
+    private final int[] mCbToG = new int[256];	// Scaled by 2^16
+    private final int[] mCrToG = new int[256];	// Scaled by 2^16
+
+    // Full range matrix (0..255), coefficients scaled by 2^16
+	private static final int C1 = 0x166E9;  // 1.402
+	private static final int C2 = 0x5819;   // 0.34414
+	private static final int C3 = 0xB6D1;   // 0.71414
+	private static final int C4 = 0x1C5A1;  // 1.772
+
+	// Studio range matrix of ITU-R BT.601 (luma 16..235, chroma 16..240)
+	private static final int S0 = 0x12A15;  // 1.164383 (255 / 219)
+	private static final int S1 = 0x19895;  // 1.596027
+	private static final int S2 = 0x644B;   // 0.391762
+	private static final int S3 = 0xD01F;   // 0.812968
+	private static final int S4 = 0x20469;  // 2.017232
 
 	/*
-	 * Perform Y'CbCr 4:2:0 to RGB conversion
+	 * Select the range the samples are coded in. MPEG-1 streams are
+	 * coded in studio range; converting them as full range shows black
+	 * as dark grey and white as light grey. Full range is the default
+	 * only so the output matches the previous converter.
+	 */
+	public void setStudioRange(boolean studio) {
+		for (int i = 0; i < 256; ++i) {
+			final int c = i - 128;
+
+			if (studio) {
+				mLuma[i]  = ((S0 * (i - 16) + 0x8000) >> 16) + CLAMP_OFFSET;
+				mCrToR[i] = (S1 * c) >> 16;
+				mCbToB[i] = (S4 * c) >> 16;
+				mCbToG[i] = -S2 * c;
+				mCrToG[i] = -S3 * c;
+			}
+			else {
+				mLuma[i]  = i + CLAMP_OFFSET;
+				mCrToR[i] = (C1 * c) >> 16;
+				mCbToB[i] = (C4 * c) >> 16;
+				mCbToG[i] = -C2 * c;
+				mCrToG[i] = -C3 * c;
+			}
+		}
+	}
+
+	/*
+	 * Perform Y'CbCr 4:2:0 to RGB conversion, into mRgb as ARGB8888
 	 */
     public void transform(Picture picture) {
+    	if (mRgb == null)
+    		mRgb = new int[mWidth * mHeight];
+
+    	transform(picture, mRgb, 0, mWidth, ARGB8888);
+    }
+
+    /*
+     * Conversion into a caller buffer: ARGB8888 or BGRA8888
+     */
+    public void transform(Picture picture, int[] output, int offset, int stride, int format) {
+    	if (format != ARGB8888 && format != BGRA8888)
+    		throw new IllegalArgumentException("Invalid format for int[]");
+
+    	setOutput(output, offset, stride, format);
+    	transform(picture, stride >= mWidth);
+
+    	// Don't keep the buffer of the caller
+    	setOutput(null, 0, 0, format);
+    }
+
+    /*
+     * Conversion into a caller buffer: RGB888 or I420
+     */
+    public void transform(Picture picture, byte[] output, int offset, int stride, int format) {
+    	if (format != RGB888 && format != I420)
+    		throw new IllegalArgumentException("Invalid format for byte[]");
+
+    	if (format == I420 && mFilter != FILTER_NONE)
+    		throw new IllegalStateException("I420 is not scaled");
+
+    	setOutput(output, offset, stride, format);
+    	transform(picture, stride >= (format == RGB888? 3 * mWidth : mWidth));
+
+    	setOutput(null, 0, 0, format);
+    }
+
+    /*
+     * Conversion into a caller buffer: RGB565 or RGB444
+     */
+    public void transform(Picture picture, short[] output, int offset, int stride, int format) {
+    	if (format != RGB565 && format != RGB444)
+    		throw new IllegalArgumentException("Invalid format for short[]");
+
+    	setOutput(output, offset, stride, format);
+    	transform(picture, stride >= mWidth);
+
+    	setOutput(null, 0, 0, format);
+    }
+
+    // Output of the conversion in progress
+    private int[] mIntOutput;
+    private byte[] mByteOutput;
+    private short[] mShortOutput;
+    private int mOffset;
+    private int mStride;
+    private int mFormat;
+
+    private void setOutput(Object output, int offset, int stride, int format) {
+    	mIntOutput  = (output instanceof int[])? (int[])output : null;
+    	mByteOutput = (output instanceof byte[])? (byte[])output : null;
+    	mShortOutput = (output instanceof short[])? (short[])output : null;
+    	mOffset = offset;
+    	mStride = stride;
+    	mFormat = format;
+
+    	setPacking(format);
+    }
+
+    private void transform(Picture picture, boolean validStride) {
+    	if (!validStride)
+    		throw new IllegalArgumentException("Stride too small");
+
+    	if (mWorkers == null) {
+    		convert(picture, 0, mHeight, mLines);
+    		return;
+    	}
+
+    	synchronized (mLock) {
+    		mPicture = picture;
+    		mPending = mWorkers.length;
+    		++mFrame;
+
+    		mLock.notifyAll();
+    	}
+
+    	// The first stripe is converted on this thread
+    	convert(picture, 0, Math.min(mStripe, mHeight), mLines);
+
+    	synchronized (mLock) {
+    		while (mPending > 0) {
+    			try {
+    				mLock.wait();
+    			}
+    			catch (InterruptedException ignore) {}
+    		}
+
+    		mPicture = null;
+    	}
+    }
+
+    /*
+     * Resample a picture of sourceWidth x sourceHeight to the bitmap
+     * size while converting it, at any ratio, so that scaling costs no
+     * extra pass. FILTER_NEAREST reads one luma and one chroma sample
+     * per pixel. FILTER_BILINEAR blends the two source lines around each
+     * output line once, into line buffers, and then interpolates along
+     * them. FILTER_NONE, the default, crops the picture instead.
+     */
+    private int mFilter = FILTER_NONE;
+
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    // Per output column: source luma and chroma columns, and for
+    // FILTER_BILINEAR their weights in 1/256
+    private int[] mLumX;
+    private int[] mColX;
+    private int[] mLumWeight;
+    private int[] mColWeight;
+
+    // Line buffers of the bilinear filter for the calling thread
+    private final int[][] mLines = new int[3][];
+
+    public void setScaling(int sourceWidth, int sourceHeight, int filter) {
+    	if (filter < FILTER_NONE || filter > FILTER_BILINEAR)
+    		throw new IllegalArgumentException("Invalid filter");
+
+    	mFilter = filter;
+    	mSourceWidth  = sourceWidth;
+    	mSourceHeight = sourceHeight;
+
+    	if (filter == FILTER_NONE)
+    		return;
+
+    	mLumX = new int[mWidth];
+    	mColX = new int[mWidth];
+    	mLumWeight = new int[mWidth];
+    	mColWeight = new int[mWidth];
+
+    	for (int x = 0; x < mWidth; ++x) {
+    		if (filter == FILTER_NEAREST) {
+    			mLumX[x] = position(x, mWidth, sourceWidth) >> 8;
+    			mColX[x] = mLumX[x] >> 1;
+    		}
+    		else {
+    			int lum = position(x, mWidth, sourceWidth) - 128;
+
+    			// Chroma samples sit between two luma samples
+    			int col = (lum >> 1) - 64;
+
+    			lum = clip(lum, sourceWidth);
+    			col = clip(col, (sourceWidth + 1) >> 1);
+
+    			mLumX[x] = lum >> 8;
+    			mColX[x] = col >> 8;
+    			mLumWeight[x] = lum & 0xff;
+    			mColWeight[x] = col & 0xff;
+    		}
+    	}
+    }
+
+    /*
+     * Source position of the center of output sample i, in 1/256
+     */
+    private static int position(int i, int size, int sourceSize) {
+    	return (int)(((2 * i + 1) * (long)sourceSize << 8) / (2 * size));
+    }
+
+    /*
+     * Keep a position in 1/256 within 0..size-1
+     */
+    private static int clip(int position, int size) {
+    	return position < 0? 0 : (position > (size - 1) << 8? (size - 1) << 8 : position);
+    }
+
+    /*
+     * Parallel conversion. The picture is split into horizontal stripes
+     * of whole macroblock rows, one per thread; the thread that calls
+     * transform() converts the first and "count - 1" worker threads the
+     * others. transform() returns once all stripes are done. Worth it
+     * only on multi-core devices. setThreads(1), the default, stops the
+     * workers.
+     *
+     * Each Bitmap starts its own workers; they are not shared with other
+     * bitmaps. CLDC has no daemon threads, so a Bitmap with workers must
+     * be closed once it is no longer used.
+     */
+    private final Object mLock = new Object();
+
+    private Worker[] mWorkers = null;
+    private int mStripe;
+
+    // Picture being converted, and conversion count
+    private Picture mPicture;
+    private int mFrame = 0;
+    private int mPending = 0;
+
+    public void setThreads(int count) {
+    	if (count < 1)
+    		throw new IllegalArgumentException("Invalid thread count");
+
+    	synchronized (mLock) {
+    		if (mWorkers != null) {
+    			for (int i = 0; i < mWorkers.length; ++i)
+    				mWorkers[i].mRunning = false;
+
+    			mLock.notifyAll();
+    			mWorkers = null;
+    		}
+
+    		if (count == 1)
+    			return;
+
+    		// Lines per stripe, rounded up to macroblock rows
+    		mStripe = ((mHeight + count - 1) / count + 15) & ~15;
+
+    		mWorkers = new Worker[count - 1];
+
+    		for (int i = 0; i < mWorkers.length; ++i) {
+    			mWorkers[i] = new Worker((i + 1) * mStripe, mFrame);
+    			mWorkers[i].start();
+    		}
+    	}
+    }
+
+    /*
+     * Stop the worker threads, if any. The Bitmap can still be used,
+     * converting on the calling thread only.
+     */
+    public void close() {
+    	setThreads(1);
+    }
+
+    private class Worker extends Thread {
+    	private final int mFirst;
+    	private int mDone;
+
+    	boolean mRunning = true;
+
+    	// Line buffers of the bilinear filter
+    	private final int[][] mLines = new int[3][];
+
+    	Worker(int first, int frame) {
+    		mFirst = first;
+    		mDone  = frame;
+    	}
+
+    	public void run() {
+    		while (true) {
+    			Picture picture;
+
+    			synchronized (mLock) {
+    				while (mRunning && mFrame == mDone) {
+    					try {
+    						mLock.wait();
+    					}
+    					catch (InterruptedException ignore) {}
+    				}
+
+    				if (!mRunning)
+    					return;
+
+    				mDone = mFrame;
+    				picture = mPicture;
+    			}
+
+    			try {
+    				if (mFirst < mHeight)
+    					convert(picture, mFirst, Math.min(mFirst + mStripe, mHeight), mLines);
+    			}
+    			finally {
+    				synchronized (mLock) {
+    					if (--mPending == 0)
+    						mLock.notifyAll();
+    				}
+    			}
+    		}
+    	}
+    }
+
+    /*
+     * Convert lines first..last-1 into the current output; first is even
+     * unless scaling, and last is odd only at the bottom of an odd height.
+     * "lines" holds the line buffers of the thread.
+     *
+     * The unscaled converters handle two lines and two pixels per step,
+     * as each chroma sample covers 2x2 luma samples. The last line of an
+     * odd height is converted as both lines of a pair, into the same
+     * place, and the last pixel of an odd width on its own.
+     */
+    private void convert(Picture picture, int first, int last, int[][] lines) {
+    	if (mFormat == I420)
+    		copy(picture, first, last);
+    	else if (mFilter == FILTER_NEAREST)
+    		convertNearest(picture, first, last);
+    	else if (mFilter == FILTER_BILINEAR)
+    		convertBilinear(picture, first, last, lines);
+    	else if (mFormat == RGB888)
+    		convertBytes(picture, first, last);
+    	else if (mFormat == RGB565 || mFormat == RGB444)
+    		convertShorts(picture, first, last);
+    	else
+    		convertInts(picture, first, last);
+    }
+
+    /*
+     * Each output format is written by one of these, from the luma
+     * table value of a pixel and the chroma contributions to R, G and B.
+     * The packing of the current format is set up by setOutput().
+     */
+    private int mRShift;
+    private int mGShift;
+    private int mBShift;
+    private int mAlpha;
+
+    private byte[] mRQuant;
+    private byte[] mGQuant;
+    private byte[] mBQuant;
+    private int[] mRDither;
+    private int[] mGDither;
+    private int[] mBDither;
+    private int mRPos;
+    private int mGPos;
+
+    private void setPacking(int format) {
+    	switch (format) {
+    		case ARGB8888:
+    			setPacking(16, 8, 0, 0xff000000);
+    			break;
+
+    		case BGRA8888:
+    			setPacking(8, 16, 24, 0xff);
+    			break;
+
+    		case RGB565:
+    			setPacking(5, 6, 5);
+    			break;
+
+    		case RGB444:
+    			setPacking(4, 4, 4);
+    			break;
+    	}
+    }
+
+    private void setPacking(int rShift, int gShift, int bShift, int alpha) {
+    	mRShift = rShift;
+    	mGShift = gShift;
+    	mBShift = bShift;
+    	mAlpha  = alpha;
+    }
+
+    /*
+     * Packed 16-bit pixels with the given number of bits per channel,
+     * R in the high bits
+     */
+    private void setPacking(int rBits, int gBits, int bBits) {
+    	mRQuant = Quant[rBits];
+    	mGQuant = Quant[gBits];
+    	mBQuant = Quant[bBits];
+
+    	mRDither = Dither[rBits];
+    	mGDither = Dither[gBits];
+    	mBDither = Dither[bBits];
+
+    	mRPos = gBits + bBits;
+    	mGPos = bBits;
+    }
+
+    /*
+     * Packed 32-bit pixel, each channel at its shift
+     */
+    private void storeInt(int index, int l, int r, int g, int b) {
+    	final int[] clamp = Clamp;
+
+    	mIntOutput[index] = (clamp[l + r] << mRShift) | (clamp[l + g] << mGShift) | (clamp[l + b] << mBShift) | mAlpha;
+    }
+
+    /*
+     * RGB888, three bytes from index on
+     */
+    private void storeBytes(int index, int l, int r, int g, int b) {
+    	final int[] clamp = Clamp;
+
+    	mByteOutput[index]     = (byte)clamp[l + r];
+    	mByteOutput[index + 1] = (byte)clamp[l + g];
+    	mByteOutput[index + 2] = (byte)clamp[l + b];
+    }
+
+    /*
+     * Packed 16-bit pixel. The threshold at position d of the dither
+     * matrix is added to each sum before it is saturated and quantized.
+     */
+    private void storeShort(int index, int d, int l, int r, int g, int b) {
+    	mShortOutput[index] = (short)((mRQuant[l + r + mRDither[d]] << mRPos) |
+    	                              (mGQuant[l + g + mGDither[d]] << mGPos) |
+    	                               mBQuant[l + b + mBDither[d]]);
+    }
+
+    /*
+     * Pixel x of a line, in whichever RGB format is current
+     */
+    private void store(int line, int x, int l, int r, int g, int b) {
+    	final int index = mOffset + line * mStride;
+
+    	switch (mFormat) {
+    		case RGB888:
+    			storeBytes(index + 3 * x, l, r, g, b);
+    			break;
+
+    		case RGB565:
+    		case RGB444:
+    			storeShort(index + x, ((line & 3) << 2) | (x & 3), l, r, g, b);
+    			break;
+
+    		default:
+    			storeInt(index + x, l, r, g, b);
+    			break;
+    	}
+    }
+
+    /*
+     * ARGB8888 and BGRA8888
+     */
+    private void convertInts(Picture picture, int first, int last) {
+    	final byte[] y  = picture.mY;
+    	final byte[] cb = picture.mCb;
+    	final byte[] cr = picture.mCr;
+
+    	final int[] luma  = mLuma;
+    	final int[] crToR = mCrToR;
+    	final int[] cbToB = mCbToB;
+    	final int[] cbToG = mCbToG;
+    	final int[] crToG = mCrToG;
+
     	// We process two lines at a time
-    	int size = (mWidth * mHeight) >>> 2;
+    	for (int line = first; line < last; line += 2) {
+    		final boolean pair = line + 1 < last;
 
-        int index1 = 0;			// First luma line
-        int index2 = mWidth;	// Second luma line
+    		int index1 = mOffset + line * mStride;		// First luma line
+    		int index2 = pair? index1 + mStride : index1;	// Second luma line
 
-        for (int i = 0; i < size; ++i) {
-            int cb = picture.mCb[i] - 128;
-            int cr = picture.mCr[i] - 128;
+    		// Same positions in the picture, whose rows are longer
+    		int lum1 = picture.mLumOrigin + line * picture.mLumRowSize;
+    		int lum2 = pair? lum1 + picture.mLumRowSize : lum1;
+    		int col  = picture.mColOrigin + (line >> 1) * picture.mColRowSize;
 
-            int c1cr = C1 * cr;
-            int c2cb = C2 * cb;
-            int c3cr = C3 * cr;
-            int c4cb = C4 * cb;
+    		for (int x = 0; x < mWidth; x += 2, ++col) {
+    			final int v = cr[col] & 0xff;
+    			final int u = cb[col] & 0xff;
 
-            /*
-             * Apply CbCr to four neighboring luma samples
-             */
-            for (int j = 0; j < 2; ++j) {
-            	int y  = picture.mY[index1] << 16;   // 2^16
+    			final int r = crToR[v];
+    			final int g = (cbToG[u] + crToG[v]) >> 16;
+    			final int b = cbToB[u];
 
-            	int r = y + c1cr;
-            	int g = y - c2cb - c3cr;
-            	int b = y + c4cb;
+    			// An odd width ends with a single pixel
+    			final int pixels = Math.min(2, mWidth - x);
 
-            	// Clamp rgb values into [0-255]
-            	b >>= 16;
-            	b = b > 0xff? 0xff : b < 0? 0 : b & 0x000000ff;
+    			/*
+    			 * Apply CbCr to four neighboring luma samples
+    			 */
+    			for (int j = 0; j < pixels; ++j) {
+    				storeInt(index1++, luma[y[lum1++] & 0xff], r, g, b);
+    				storeInt(index2++, luma[y[lum2++] & 0xff], r, g, b);
+    			}
+    		}
+    	}
+    }
 
-            	g >>= 8;
-            	g = g > 0xff00? 0xff00 : g < 0? 0 : g & 0x0000ff00;
+    /*
+     * RGB888, three bytes per pixel
+     */
+    private void convertBytes(Picture picture, int first, int last) {
+    	final byte[] y  = picture.mY;
+    	final byte[] cb = picture.mCb;
+    	final byte[] cr = picture.mCr;
 
-            	r = r > 0xff0000? 0xff0000 : r < 0? 0 : r & 0x00ff0000;
+    	final int[] luma  = mLuma;
+    	final int[] crToR = mCrToR;
+    	final int[] cbToB = mCbToB;
+    	final int[] cbToG = mCbToG;
+    	final int[] crToG = mCrToG;
 
-            	mRgb[index1++] = (r | g | b);
+    	for (int line = first; line < last; line += 2) {
+    		final boolean pair = line + 1 < last;
 
-            	y  = picture.mY[index2] << 16;   // 2^16
+    		int index1 = mOffset + line * mStride;
+    		int index2 = pair? index1 + mStride : index1;
 
-            	r = y + c1cr;
-            	g = y - c2cb - c3cr;
-            	b = y + c4cb;
+    		int lum1 = picture.mLumOrigin + line * picture.mLumRowSize;
+    		int lum2 = pair? lum1 + picture.mLumRowSize : lum1;
+    		int col  = picture.mColOrigin + (line >> 1) * picture.mColRowSize;
 
-            	// Clamp rgb values into [0-255]
-            	b >>= 16;
-            	b = b > 0xff? 0xff : b < 0? 0 : b & 0x000000ff;
+    		for (int x = 0; x < mWidth; x += 2, ++col) {
+    			final int v = cr[col] & 0xff;
+    			final int u = cb[col] & 0xff;
 
-            	g >>= 8;
-            	g = g > 0xff00? 0xff00 : g < 0? 0 : g & 0x0000ff00;
+    			final int r = crToR[v];
+    			final int g = (cbToG[u] + crToG[v]) >> 16;
+    			final int b = cbToB[u];
 
-            	r = r > 0xff0000? 0xff0000 : r < 0? 0 : r & 0x00ff0000;
+    			// An odd width ends with a single pixel
+    			final int pixels = Math.min(2, mWidth - x);
 
-            	mRgb[index2++] = (r | g | b);
-            }
+    			for (int j = 0; j < pixels; ++j) {
+    				storeBytes(index1, luma[y[lum1++] & 0xff], r, g, b);
+    				storeBytes(index2, luma[y[lum2++] & 0xff], r, g, b);
 
-            // Next two lines
-            if (index1 % mWidth == 0) {
-            	index1 += mWidth;
-            	index2 += mWidth;
-            }
-        }
+    				index1 += 3;
+    				index2 += 3;
+    			}
+    		}
+    	}
+    }
+
+    /*
+     * I420: the planes are copied as they are
+     */
+    private void copy(Picture picture, int first, int last) {
+    	// Chroma planes round odd sizes up
+    	final int colWidth  = (mWidth + 1) >> 1;
+    	final int colStride = (mStride + 1) >> 1;
+
+    	final int cbOffset = mOffset + mStride * mHeight;
+    	final int crOffset = cbOffset + colStride * ((mHeight + 1) >> 1);
+
+    	for (int line = first; line < last; ++line)
+    		System.arraycopy(picture.mY, picture.mLumOrigin + line * picture.mLumRowSize,
+    		                 mByteOutput, mOffset + line * mStride, mWidth);
+
+    	for (int line = first >> 1; line < (last + 1) >> 1; ++line) {
+    		final int src = picture.mColOrigin + line * picture.mColRowSize;
+
+    		System.arraycopy(picture.mCb, src, mByteOutput, cbOffset + line * colStride, colWidth);
+    		System.arraycopy(picture.mCr, src, mByteOutput, crOffset + line * colStride, colWidth);
+    	}
+    }
+
+    /*
+     * Packed 16-bit pixels, ordered dithered
+     */
+    private void convertShorts(Picture picture, int first, int last) {
+    	final byte[] y  = picture.mY;
+    	final byte[] cb = picture.mCb;
+    	final byte[] cr = picture.mCr;
+
+    	final int[] luma  = mLuma;
+    	final int[] crToR = mCrToR;
+    	final int[] cbToB = mCbToB;
+    	final int[] cbToG = mCbToG;
+    	final int[] crToG = mCrToG;
+
+    	for (int line = first; line < last; line += 2) {
+    		final boolean pair = line + 1 < last;
+
+    		int index1 = mOffset + line * mStride;
+    		int index2 = pair? index1 + mStride : index1;
+
+    		int lum1 = picture.mLumOrigin + line * picture.mLumRowSize;
+    		int lum2 = pair? lum1 + picture.mLumRowSize : lum1;
+    		int col  = picture.mColOrigin + (line >> 1) * picture.mColRowSize;
+
+    		// Dither matrix rows of both lines
+    		final int row1 = (line & 3) << 2;
+    		final int row2 = pair? ((line + 1) & 3) << 2 : row1;
+
+    		for (int x = 0; x < mWidth; x += 2, ++col) {
+    			final int v = cr[col] & 0xff;
+    			final int u = cb[col] & 0xff;
+
+    			final int r = crToR[v];
+    			final int g = (cbToG[u] + crToG[v]) >> 16;
+    			final int b = cbToB[u];
+
+    			// An odd width ends with a single pixel
+    			final int pixels = Math.min(2, mWidth - x);
+
+    			for (int j = 0; j < pixels; ++j) {
+    				storeShort(index1++, row1 | ((x + j) & 3), luma[y[lum1++] & 0xff], r, g, b);
+    				storeShort(index2++, row2 | ((x + j) & 3), luma[y[lum2++] & 0xff], r, g, b);
+    			}
+    		}
+    	}
+    }
+
+    /*
+     * Scaled conversion, nearest neighbor
+     */
+    private void convertNearest(Picture picture, int first, int last) {
+    	final byte[] y  = picture.mY;
+    	final byte[] cb = picture.mCb;
+    	final byte[] cr = picture.mCr;
+
+    	final int[] luma  = mLuma;
+    	final int[] crToR = mCrToR;
+    	final int[] cbToB = mCbToB;
+    	final int[] cbToG = mCbToG;
+    	final int[] crToG = mCrToG;
+
+    	final int[] lumX = mLumX;
+    	final int[] colX = mColX;
+
+    	for (int line = first; line < last; ++line) {
+    		final int sy = position(line, mHeight, mSourceHeight) >> 8;
+
+    		final int lum = picture.mLumOrigin + sy * picture.mLumRowSize;
+    		final int col = picture.mColOrigin + (sy >> 1) * picture.mColRowSize;
+
+    		for (int x = 0; x < mWidth; ++x) {
+    			final int c = col + colX[x];
+    			final int v = cr[c] & 0xff;
+    			final int u = cb[c] & 0xff;
+
+    			store(line, x, luma[y[lum + lumX[x]] & 0xff], crToR[v], (cbToG[u] + crToG[v]) >> 16, cbToB[u]);
+    		}
+    	}
+    }
+
+    /*
+     * Scaled conversion, bilinear. Each output line first blends the two
+     * source lines around it, for all three planes, into line buffers
+     * (scaled by 256); the buffers are then interpolated horizontally.
+     */
+    private void convertBilinear(Picture picture, int first, int last, int[][] lines) {
+    	final int lumWidth = mSourceWidth;
+    	final int colWidth = (mSourceWidth + 1) >> 1;
+
+    	// One more entry, as the last sample is read with weight 0
+    	if (lines[0] == null || lines[0].length < lumWidth + 1) {
+    		lines[0] = new int[lumWidth + 1];
+    		lines[1] = new int[colWidth + 1];
+    		lines[2] = new int[colWidth + 1];
+    	}
+
+    	final int[] lumLine = lines[0];
+    	final int[] cbLine  = lines[1];
+    	final int[] crLine  = lines[2];
+
+    	final int[] luma  = mLuma;
+    	final int[] crToR = mCrToR;
+    	final int[] cbToB = mCbToB;
+    	final int[] cbToG = mCbToG;
+    	final int[] crToG = mCrToG;
+
+    	final int[] lumX = mLumX;
+    	final int[] colX = mColX;
+    	final int[] lumWeight = mLumWeight;
+    	final int[] colWeight = mColWeight;
+
+    	for (int line = first; line < last; ++line) {
+    		int lum = position(line, mHeight, mSourceHeight) - 128;
+    		int col = (lum >> 1) - 64;
+
+    		lum = clip(lum, mSourceHeight);
+    		col = clip(col, (mSourceHeight + 1) >> 1);
+
+    		blend(picture.mY, picture.mLumOrigin, picture.mLumRowSize, lum, lumLine, lumWidth);
+    		blend(picture.mCb, picture.mColOrigin, picture.mColRowSize, col, cbLine, colWidth);
+    		blend(picture.mCr, picture.mColOrigin, picture.mColRowSize, col, crLine, colWidth);
+
+    		for (int x = 0; x < mWidth; ++x) {
+    			int i = colX[x];
+    			int w = colWeight[x];
+
+    			final int u = (cbLine[i] * (256 - w) + cbLine[i + 1] * w + 0x8000) >> 16;
+    			final int v = (crLine[i] * (256 - w) + crLine[i + 1] * w + 0x8000) >> 16;
+
+    			i = lumX[x];
+    			w = lumWeight[x];
+
+    			final int l = luma[(lumLine[i] * (256 - w) + lumLine[i + 1] * w + 0x8000) >> 16];
+
+    			store(line, x, l, crToR[v], (cbToG[u] + crToG[v]) >> 16, cbToB[u]);
+    		}
+    	}
+    }
+
+    /*
+     * Blend two lines of a plane, at "position" (in 1/256 of a line),
+     * into "buffer"
+     */
+    private static void blend(byte[] plane, int origin, int rowSize, int position, int[] buffer, int width) {
+    	final int weight = position & 0xff;
+
+    	final int row0 = origin + (position >> 8) * rowSize;
+    	final int row1 = (weight == 0)? row0 : row0 + rowSize;
+
+    	for (int i = 0; i < width; ++i)
+    		buffer[i] = (plane[row0 + i] & 0xff) * (256 - weight) + (plane[row1 + i] & 0xff) * weight;
+
+    	buffer[width] = buffer[width - 1];
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * A ByteSource hands the bytes of a stream to an InputBitStream as a
+ * sequence of windows. The bit stream reads each window in place, so a
+ * source never has to copy data it already holds in memory.
+ */
+public interface ByteSource {
+    /*
+     * Make the next window of bytes available. Returns the number of
+     * bytes in the window, or -1 at the end of the stream.
+     */
+    public int read() throws IOException;
+
+    /*
+     * Array holding the current window
+     */
+    public byte[] getBuffer();
+
+    /*
+     * Position of the first byte of the current window in getBuffer()
+     */
+    public int getOffset();
+
+    public void close();
+}
@@ -12,13 +12,13 @@ public class Decoder {
     private InputBitStream mInput   = null;
     private VideoRenderer mRenderer = null;
 
-    private Picture[] mPictureStore = new Picture[3];
-    private int mCurrent = 0, mPrevious = -1, mFuture = -1;
+    private PicturePool mPool = null;
+    private Picture mCurrent = null, mPrevious = null, mFuture = null;
 
     private MotionVector mForward   = new MotionVector();
     private MotionVector mBackward  = new MotionVector();
 
-    private Idct mIdct 			    = new Idct();
+    private Idct mIdct 			    = new LoefflerIdct();
     private Vlc mVlc 			    = new Vlc();
 
     private int mPictureCodingType;
@@ -59,16 +59,16 @@ public class Decoder {
     private short[] IntraQuantizerMatrix 	= new short[64];
     private short[] NonIntraQuantizerMatrix = new short[64];
 
-    // Zig-zag scan matrix
+    // Zig-zag scan: position in the block of each coefficient, in scan order
     private static final byte[] ScanMatrix = {
-        0,  1,  5,  6, 14, 15, 27, 28,
-        2,  4,  7, 13, 16, 26, 29, 42,
-        3,  8, 12, 17, 25, 30, 41, 43,
-        9, 11, 18, 24, 31, 40, 44, 53,
-       10, 19, 23, 32, 39, 45, 52, 54,
-       20, 22, 33, 38, 46, 51, 55, 60,
-       21, 34, 37, 47, 50, 56, 59, 61,
-       35, 36, 48, 49, 57, 58, 62, 63
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
     };
 
 
@@ -76,23 +76,22 @@ public class Decoder {
      * Start codes are reserved bit patterns that do not otherwise
      * occur in the video stream. All start codes are byte aligned.
      */
-    private static final int START_CODE 		  = 0x000001;		// 24-bit code
+    static final int PICTURE_START_CODE   = 0x00000100;
+    static final int SLICE_START_CODE     = 0x00000101;
+    static final int LAST_SLICE_START_CODE = 0x000001af;
 
-    private static final int PICTURE_START_CODE   = 0x00000100;
-    private static final int SLICE_START_CODE     = 0x00000101;	// through 0x000001af
-
-    private static final int USER_DATA_START_CODE = 0x000001b2;
-    private static final int SEQUENCE_HEADER_CODE = 0x000001b3;
-    private static final int EXTENSION_START_CODE = 0x000001b5;
-    private static final int SEQUENCE_END_CODE    = 0x000001b7;
-    private static final int GROUP_START_CODE     = 0x000001b8;
+    static final int USER_DATA_START_CODE = 0x000001b2;
+    static final int SEQUENCE_HEADER_CODE = 0x000001b3;
+    static final int EXTENSION_START_CODE = 0x000001b5;
+    static final int SEQUENCE_END_CODE    = 0x000001b7;
+    static final int GROUP_START_CODE     = 0x000001b8;
 
     /**
      * Constructs MPEG decoder
      *
      * @param queue  Playout queue
      * @param input  Video bitstream
-     * @param player Canvas canvas
+     * @param player Canvas canvas, or null if nothing is displayed
      */
     public Decoder(Queue queue, InputBitStream input, VideoRenderer renderer) {
     	mQueue    = queue;
@@ -105,11 +104,27 @@ public class Decoder {
      * start code. See ISO/IEC 11172-2 Section 2.3
      */
     private void nextStartCode() throws IOException {
-        while (!mInput.isByteAligned())
-            mInput.getBits(1);
+        mInput.nextStartCode();
+    }
+
+    /*
+     * Extension and user data are not used by the decoder. Their
+     * payload runs up to the next start code.
+     */
+    private void skipExtensionAndUserData() throws IOException {
+        if (mInput.nextBits(32) == EXTENSION_START_CODE) {
+            mInput.getBits(32);
+            nextStartCode();
+        }
+
+        if (mInput.nextBits(32) == USER_DATA_START_CODE) {
+            mInput.getBits(32);
+            nextStartCode();
+        }
+    }
 
-        while (mInput.nextBits(24) != START_CODE)
-            mInput.getBits(8);
+    private static boolean isSliceStartCode(int code) {
+        return code >= SLICE_START_CODE && code <= LAST_SLICE_START_CODE;
     }
 
     public void start() throws IOException {
@@ -121,23 +136,270 @@ public class Decoder {
          * by a SEQUENCE_END_CODE. Immediately before each of the
          * groups of pictures there may be a sequence header.
          */
+        while (true) {
+            if (isSeekPending())
+                performSeek();
+
+            int code = mInput.nextBits(32);
+
+            if (code == SEQUENCE_HEADER_CODE)
+                parseSequenceHeader();
+            else if (code == GROUP_START_CODE)
+                parseGroupOfPictures();
+            else
+                break;
+        }
 
-         do {
-             parseSequenceHeader();
+        int sequenceEndCode = mInput.getBits(32);
+    }
+
+    /*
+     * Picture stores are allocated with the first sequence header.
+     * All sequence headers in a stream share the same picture size.
+     */
+    private void allocatePictureStore() {
+        if (mPool != null)
+            return;
 
-             mRenderer.setSize(mWidth, mHeight);
+        if (mRenderer != null)
+            mRenderer.setSize(mWidth >> mScale, mHeight >> mScale);
 
-             mPictureStore[0] = new Picture(mMacroblockWidth, mMacroblockHeight);
-             mPictureStore[1] = new Picture(mMacroblockWidth, mMacroblockHeight);
-             mPictureStore[2] = new Picture(mMacroblockWidth, mMacroblockHeight);
+        mPool = new PicturePool(mPoolSize, mMacroblockWidth, mMacroblockHeight, mScale);
+    }
+
+    /*
+     * Number of pictures shared by the decoder and the consumers of its
+     * output (see PicturePool). At least 3, which leaves the consumers
+     * no picture to hold; the default allows them to keep one, as
+     * VideoRenderer does to reorder pictures. Must be called before
+     * decoding starts.
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
 
-             do {
-                 parseGroupOfPictures();
-             } while (mInput.nextBits(32) == GROUP_START_CODE);
+    private int mPoolSize = DEFAULT_POOL_SIZE;
 
-         } while (mInput.nextBits(32) == SEQUENCE_HEADER_CODE);
+    public void setPoolSize(int size) {
+        if (size < 3)
+            throw new IllegalArgumentException("Pool too small");
 
-         int sequenceEndCode = mInput.getBits(32);
+        mPoolSize = size;
+    }
+
+    /*
+     * Drop the decoder's hold on the reference pictures
+     */
+    private void releaseReferences() {
+        if (mPrevious != null)
+            mPrevious.release();
+
+        if (mFuture != null)
+            mFuture.release();
+
+        mPrevious = mFuture = null;
+    }
+
+    /*
+     * Reduced resolution decoding, for thumbnails and previews.
+     * Pictures are decoded at 1/2, 1/4 or 1/8 of their size in each
+     * dimension (scale 1, 2 or 3) using only the low frequency
+     * coefficients of each block, so no work is spent on pels that
+     * would be thrown away. Must be called before decoding starts.
+     */
+    private int mScale = 0;
+    private ReducedIdct mReducedIdct = null;
+
+    public void setScale(int scale) {
+        mReducedIdct = (scale == 0)? null : new ReducedIdct(scale);
+        mScale = scale;
+
+        mForward.setScale(scale);
+        mBackward.setScale(scale);
+    }
+
+    /*
+     * Select the IDCT implementation (LoefflerIdct by default).
+     * Should be called before decoding starts.
+     */
+    public void setIdct(Idct idct) {
+        mIdct = idct;
+    }
+
+    /*
+     * Random access. Seeking needs a StreamIndex of the stream and a
+     * seekable input; without an index, seek requests are refused with
+     * IllegalStateException. Requests may come from any thread; they
+     * are carried out by the decoding thread before the next picture.
+     */
+    private StreamIndex mIndex = null;
+
+    private boolean mSeekPending = false;
+    private int mSeekFrame;
+    private long mSeekTime;
+
+    // Groups to decode without output before the target group
+    private int mSeekGroups = 0;
+    // Temporal reference of the target picture in the target group
+    private int mSeekReference = -1;
+    // Pictures with a lower temporal reference are not sent to the player
+    private int mOutputFrom = 0;
+    private boolean mFirstAfterSeek = false;
+
+    /*
+     * When the video comes out of a system stream, the demuxer
+     * provides the time stamps of each picture
+     */
+    private SystemDemuxer mDemuxer = null;
+
+    public void setDemuxer(SystemDemuxer demuxer) {
+        mDemuxer = demuxer;
+    }
+
+    public synchronized void setIndex(StreamIndex index) {
+        mIndex = index;
+    }
+
+    /*
+     * Continue with the given picture, counted in display order from
+     * the start of the stream
+     */
+    public synchronized void seekToFrame(int frame) {
+        if (mIndex == null)
+            throw new IllegalStateException("No stream index");
+
+        mSeekFrame = frame;
+        mSeekTime  = -1;
+        mSeekPending = true;
+    }
+
+    /*
+     * Continue with the picture showing at the given time, in
+     * milliseconds, as given by the group of pictures time codes
+     */
+    public synchronized void seek(long time) {
+        if (mIndex == null)
+            throw new IllegalStateException("No stream index");
+
+        mSeekFrame = -1;
+        mSeekTime  = time;
+        mSeekPending = true;
+    }
+
+    private synchronized boolean isSeekPending() {
+        return mSeekPending;
+    }
+
+    // Picture rates as numerator, denominator. See ISO/IEC 11172-2 2.4.3.2
+    // Code 0 is forbidden and is treated as 30 Hz.
+    private static final int[][] PictureRates = {
+        {30, 1}, {24000, 1001}, {24, 1}, {25, 1}, {30000, 1001}, {30, 1}, {50, 1}, {60000, 1001}, {60, 1}
+    };
+
+    private int mPictureRate;
+
+    /*
+     * time_code: drop_frame_flag (1), hours (5), minutes (6),
+     * marker_bit (1), seconds (6), pictures (6)
+     */
+    private long timeCodeToMillis(int timeCode) {
+        int hours   = (timeCode >>> 19) & 0x1f;
+        int minutes = (timeCode >>> 13) & 0x3f;
+        int seconds = (timeCode >>> 6) & 0x3f;
+        int pictures = timeCode & 0x3f;
+
+        int[] rate = PictureRates[mPictureRate];
+
+        return ((hours * 60L + minutes) * 60 + seconds) * 1000 + (pictures * 1000L * rate[1]) / rate[0];
+    }
+
+    private void performSeek() throws IOException {
+        int frame;
+        long time;
+
+        synchronized (this) {
+            frame = mSeekFrame;
+            time  = mSeekTime;
+            mSeekPending = false;
+        }
+
+        int count = mIndex.getCount();
+
+        // Groups and the number of pictures each one holds
+        int[] groups = new int[count];
+        int[] sizes = new int[count];
+        int groupCount = 0;
+
+        for (int i = 0; i < count; ++i) {
+            if (mIndex.getType(i) == StreamIndex.GROUP_OF_PICTURES)
+                groups[groupCount++] = i;
+            else if (mIndex.getType(i) == StreamIndex.PICTURE && groupCount > 0)
+                ++sizes[groupCount - 1];
+        }
+
+        if (groupCount == 0)
+            return;
+
+        // Picture rate is needed for time based seeks
+        if (time >= 0 && mPool == null) {
+            for (int i = 0; i < count; ++i) {
+                if (mIndex.getType(i) == StreamIndex.SEQUENCE_HEADER) {
+                    mInput.seek(mIndex.getOffset(i));
+                    parseSequenceHeader();
+                    break;
+                }
+            }
+        }
+
+        // Locate target group and target temporal reference
+        int group = 0;
+        int reference = 0;
+
+        if (time >= 0) {
+            for (int g = 1; g < groupCount; ++g)
+                if (timeCodeToMillis(mIndex.getTimeCode(groups[g])) <= time)
+                    group = g;
+
+            int[] rate = PictureRates[mPictureRate];
+            long elapsed = time - timeCodeToMillis(mIndex.getTimeCode(groups[group]));
+
+            reference = (int)Math.max(0, (elapsed * rate[0]) / (1000L * rate[1]));
+        }
+        else {
+            reference = Math.max(frame, 0);
+
+            while (group < groupCount - 1 && reference >= sizes[group])
+                reference -= sizes[group++];
+        }
+
+        reference = Math.min(reference, sizes[group] - 1);
+
+        /*
+         * Leading B-pictures of an open group are predicted from the
+         * last reference picture of the previous group, so decoding has
+         * to start one group earlier.
+         */
+        int start = group;
+        int first = groups[group] + 1;
+
+        if (!mIndex.isClosedGop(groups[group]) && group > 0 && first < count &&
+            mIndex.getType(first) == StreamIndex.PICTURE && reference < mIndex.getTemporalReference(first))
+            --start;
+
+        // Quantization matrices come from the last sequence header
+        for (int i = groups[start]; i >= 0; --i) {
+            if (mIndex.getType(i) == StreamIndex.SEQUENCE_HEADER) {
+                mInput.seek(mIndex.getOffset(i));
+                parseSequenceHeader();
+                break;
+            }
+        }
+
+        mInput.seek(mIndex.getOffset(groups[start]));
+
+        releaseReferences();
+
+        mSeekGroups = group - start;
+        mSeekReference = reference;
+        mFirstAfterSeek = true;
     }
 
     /*
@@ -155,7 +417,7 @@ public class Decoder {
         mMacroblockHeight = (mHeight + 15) >> 4;
 
         int pelAspectRatio = mInput.getBits(4);
-        int pictureRate = mInput.getBits(4);
+        mPictureRate = mInput.getBits(4);
 
         int bitRate = mInput.getBits(18);
         int markerBit = mInput.getBits(1);	// Should be == 0x1
@@ -180,25 +442,9 @@ public class Decoder {
 
         nextStartCode();
 
-        if (mInput.nextBits(32) == EXTENSION_START_CODE) {
-            mInput.getBits(32);
-
-            while (mInput.nextBits(24) != START_CODE) {
-                int sequenceExtensionData = mInput.getBits(8);
-            }
-
-            nextStartCode();
-        }
+        skipExtensionAndUserData();
 
-        if (mInput.nextBits(32) == USER_DATA_START_CODE) {
-            mInput.getBits(32);
-
-            while (mInput.nextBits(24) != START_CODE) {
-                int userData = mInput.getBits(8);
-            }
-
-            nextStartCode();
-        }
+        allocatePictureStore();
     }
 
     /*
@@ -211,12 +457,16 @@ public class Decoder {
     private void loadIntraQuantizerMatrix() throws IOException {
         for (int i = 0; i < 64; ++i) {
             int value = mInput.getBits(8);
-            IntraQuantizerMatrix[i] = (short)(value & 0xff);
+            mLoadedMatrix[i] = (short)(value & 0xff);
         }
+
+        if (setMatrix(IntraQuantizerMatrix, mLoadedMatrix))
+            discardTables(mIntraBuilt);
     }
 
     private void loadDefaultIntraQuantizerMatrix() {
-    	System.arraycopy(DefaultIntraQuantizerMatrix, 0, IntraQuantizerMatrix, 0, 64);
+        if (setMatrix(IntraQuantizerMatrix, DefaultIntraQuantizerMatrix))
+            discardTables(mIntraBuilt);
     }
 
     /*
@@ -228,12 +478,80 @@ public class Decoder {
     private void loadNonIntraQuantizerMatrix() throws IOException {
         for (int i = 0; i < 64; ++i) {
             int value = mInput.getBits(8);
-            NonIntraQuantizerMatrix[i] = (short)(value & 0xff);
+            mLoadedMatrix[i] = (short)(value & 0xff);
         }
+
+        if (setMatrix(NonIntraQuantizerMatrix, mLoadedMatrix))
+            discardTables(mNonIntraBuilt);
     }
 
     private void loadDefaultNonIntraQuantizerMatrix() {
-    	System.arraycopy(DefaultNonIntraQuantizerMatrix, 0, NonIntraQuantizerMatrix, 0, 64);
+        if (setMatrix(NonIntraQuantizerMatrix, DefaultNonIntraQuantizerMatrix))
+            discardTables(mNonIntraBuilt);
+    }
+
+    /*
+     * Dequantization tables: quantizer_scale times the quantization
+     * matrix, one table per scale (1 to 31) and matrix. They are built
+     * the first time a scale is used, and only rebuilt, in place, when
+     * a sequence header brings a different matrix. So the first use of
+     * each scale allocates a table, and nothing else does.
+     */
+    private short[] mLoadedMatrix = new short[64];
+
+    private int[][] mIntraTables    = new int[32][];
+    private int[][] mNonIntraTables = new int[32][];
+
+    // Whether each table holds the current matrix
+    private boolean[] mIntraBuilt    = new boolean[32];
+    private boolean[] mNonIntraBuilt = new boolean[32];
+
+    // Tables for the current quantizer_scale
+    private int[] mIntraWeights;
+    private int[] mNonIntraWeights;
+
+    /*
+     * Copy a quantization matrix. Returns true if it changed.
+     */
+    private static boolean setMatrix(short[] matrix, short[] values) {
+        boolean changed = false;
+
+        for (int i = 0; i < 64; ++i) {
+            if (matrix[i] != values[i]) {
+                matrix[i] = values[i];
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private static void discardTables(boolean[] built) {
+        for (int i = 0; i < built.length; ++i)
+            built[i] = false;
+    }
+
+    private static int[] getTable(int[][] tables, boolean[] built, short[] matrix, int scale) {
+        if (!built[scale]) {
+            if (tables[scale] == null)
+                tables[scale] = new int[64];
+
+            int[] table = tables[scale];
+
+            for (int i = 0; i < 64; ++i)
+                table[i] = scale * matrix[i];
+
+            built[scale] = true;
+        }
+
+        return tables[scale];
+    }
+
+    private void setQuantizerScale(int scale) {
+        mQuantizerScale = scale;
+
+        mIntraWeights    = getTable(mIntraTables, mIntraBuilt, IntraQuantizerMatrix, scale);
+        mNonIntraWeights = getTable(mNonIntraTables, mNonIntraBuilt, NonIntraQuantizerMatrix, scale);
     }
 
     /*
@@ -252,36 +570,47 @@ public class Decoder {
 
         nextStartCode();
 
-        if (mInput.nextBits(32) == EXTENSION_START_CODE) {
-            mInput.getBits(32);
+        skipExtensionAndUserData();
 
-            while (mInput.nextBits(24) != START_CODE) {
-                int groupExtensionData = mInput.getBits(8);
-            }
-
-            nextStartCode();
+        // Reset picture store indexes
+        if (closedGop) {
+        	releaseReferences();
         }
 
-        if (mInput.nextBits(32) == USER_DATA_START_CODE) {
-            mInput.getBits(32);
-
-            while (mInput.nextBits(24) != START_CODE) {
-                int userData = mInput.getBits(8);
-            }
-
-            nextStartCode();
+        // While seeking, only pictures from the target on are shown
+        if (mSeekGroups > 0) {
+            --mSeekGroups;
+            mOutputFrom = Integer.MAX_VALUE;
         }
-
-        // Reset picture store indexes
-        if (closedGop) {
-        	mPrevious = mFuture = -1;
+        else if (mSeekReference >= 0) {
+            mOutputFrom = mSeekReference;
+            mSeekReference = -1;
+        }
+        else {
+            mOutputFrom = 0;
         }
 
     	do {
-    		parsePicture();
-
-    		// Send picture to player
-    		mQueue.put(mPictureStore[mCurrent]);
+    		if (parsePicture()) {
+    			// Send picture to player, which releases it when done
+    			Picture picture = mCurrent;
+
+    			if (picture.mTime >= mOutputFrom) {
+    				/*
+    				 * The first picture after a seek is a reference picture.
+    				 * The B-pictures from the target up to it come next,
+    				 * unless the target is that picture or they have no
+    				 * forward reference.
+    				 */
+    				picture.mFirstAfterSeek = mFirstAfterSeek;
+    				picture.mBPicturesFollow = mFirstAfterSeek && picture.mType != Picture.B_TYPE &&
+    				                           picture.mTime > mOutputFrom && mPrevious != null;
+    				mFirstAfterSeek = false;
+
+    				picture.retain();
+    				mQueue.put(picture);
+    			}
+    		}
 /*
             try {
             	Thread.sleep(100);
@@ -289,24 +618,28 @@ public class Decoder {
 */
     		// Store current picture in Previous or Future Picture Store
     		// Refer to section 2-D.2.4
+    		// The decoder's hold on the current picture passes to the
+    		// picture store; B-pictures are not kept
            	if (mPictureCodingType == Picture.I_TYPE || mPictureCodingType == Picture.P_TYPE) {
-           		if (mPrevious == -1)
+           		// Extend the edges for the pictures predicted from it
+           		mCurrent.pad();
+
+           		if (mPrevious == null)
            		{
            			mPrevious = mCurrent;
            		}
-           		else if (mFuture == -1)
-           		{
-           			mFuture = mCurrent;
-           		}
            		else
            		{
            			mFuture = mCurrent;
            		}
-
-           		mCurrent = (mCurrent + 1) % 3;
             }
+           	else if (mCurrent != null) {
+           		mCurrent.release();
+           	}
 
-    	} while (mInput.nextBits(32) == PICTURE_START_CODE);
+           	mCurrent = null;
+
+    	} while (!isSeekPending() && mInput.nextBits(32) == PICTURE_START_CODE);
     }
 
     // Only present in P and B pictures
@@ -316,21 +649,44 @@ public class Decoder {
     private int mBackwardF;
     private int mBackwardRSize;
 
-    private void parsePicture() throws IOException {
+    /*
+     * Returns false if the picture was skipped. B-pictures are not
+     * decoded when they won't be shown or when one of their reference
+     * pictures is missing, as happens after a seek.
+     */
+    private boolean parsePicture() throws IOException {
+        long position = mInput.getPosition();
+
         int pictureStartCode = mInput.getBits(32);
         int temporalReference = mInput.getBits(10);
         mPictureCodingType = mInput.getBits(3);
+
+        if (mPictureCodingType == Picture.B_TYPE && (temporalReference < mOutputFrom || mFuture == null)) {
+            skipPicture();
+            return false;
+        }
+
         int vbvDelay = mInput.getBits(16);
 
+        // Waits while the consumers hold every other picture
+        mCurrent = mPool.acquire();
+
         // This data is to be used later by the player
-        mPictureStore[mCurrent].mTime = temporalReference;
-        mPictureStore[mCurrent].mType = mPictureCodingType;
+        mCurrent.mTime = temporalReference;
+        mCurrent.mType = mPictureCodingType;
+
+        if (mDemuxer != null)
+            mDemuxer.getTimeStamps(position, mCurrent);
 
 		// "Copy" picture from Future Picture Store to Previous Picture Store
 		// Refer to section 2-D.2.4
-        if (mPictureCodingType == Picture.I_TYPE || mPictureCodingType == Picture.P_TYPE)
-        	if (mFuture != -1)
+        if (mPictureCodingType == Picture.I_TYPE || mPictureCodingType == Picture.P_TYPE) {
+        	if (mFuture != null) {
+        		mPrevious.release();
         		mPrevious = mFuture;
+        		mFuture = null;
+        	}
+        }
 
         if (mPictureCodingType == Picture.P_TYPE || mPictureCodingType == Picture.B_TYPE) {
             boolean fullPelForwardVector = mInput.getBits(1) == 1;
@@ -359,29 +715,30 @@ public class Decoder {
 
         nextStartCode();
 
-        if (mInput.nextBits(32) == EXTENSION_START_CODE) {
-            mInput.getBits(32);
+        skipExtensionAndUserData();
 
-            while (mInput.nextBits(24) != START_CODE) {
-                int pictureExtensionData = mInput.getBits(8);
-            }
+        do {
+            parseSlice();
+        } while (isSliceStartCode(mInput.nextBits(32)));
 
+        return true;
+    }
+
+    /*
+     * Move past the rest of the picture: everything up to the next
+     * start code that is not a slice, extension or user data.
+     */
+    private void skipPicture() throws IOException {
+        while (true) {
             nextStartCode();
-        }
 
-        if (mInput.nextBits(32) == USER_DATA_START_CODE) {
-            mInput.getBits(32);
+            int code = mInput.nextBits(32);
 
-            while (mInput.nextBits(24) != START_CODE) {
-                int userData = mInput.getBits(8);
-            }
+            if (!isSliceStartCode(code) && code != EXTENSION_START_CODE && code != USER_DATA_START_CODE)
+                break;
 
-            nextStartCode();
+            mInput.getBits(32);
         }
-
-        do {
-            parseSlice();
-        } while (mInput.nextBits(32) == SLICE_START_CODE);
     }
 
     // Predictors
@@ -421,7 +778,7 @@ public class Decoder {
          */
         mMacroblockAddress = (sliceVerticalPosition - 1) * mMacroblockWidth - 1;
 
-        mQuantizerScale = mInput.getBits(5);
+        setQuantizerScale(mInput.getBits(5));
 
         int extraBitSlice = 0;
         while (mInput.nextBits(1) == 0x1) {
@@ -480,11 +837,19 @@ public class Decoder {
 			if (mPictureCodingType == Picture.P_TYPE) {
 				mForward.resetPrevious();
 
-				for (int i = 0; i < macroblockAddressIncrement; ++i) {
-					int mbRow = (mMacroblockAddress + 1 + i) / mMacroblockWidth;
-					int mbCol = (mMacroblockAddress + 1 + i) % mMacroblockWidth;
+				// Copy the skipped run in spans, one per macroblock row
+				int address = mMacroblockAddress + 1;
+				int remaining = macroblockAddressIncrement - 1;
+
+				while (remaining > 0) {
+					int mbRow = address / mMacroblockWidth;
+					int mbCol = address - mbRow * mMacroblockWidth;
+					int count = Math.min(remaining, mMacroblockWidth - mbCol);
 
-					mPictureStore[mCurrent].copy(mPictureStore[mPrevious], mbRow, mbCol);
+					mCurrent.copy(mPrevious, mbRow, mbCol, count);
+
+					address   += count;
+					remaining -= count;
 				}
 			}
 			/*
@@ -499,11 +864,11 @@ public class Decoder {
 					int mbCol = (mMacroblockAddress + 1 + i) % mMacroblockWidth;
 
     				if (!mMacroblockType.mMacroblockMotionForward && mMacroblockType.mMacroblockMotionBackward)
-				    	mPictureStore[mCurrent].compensate(mPictureStore[mFuture], mbRow, mbCol, mBackward);
+				    	mCurrent.compensate(mFuture, mbRow, mbCol, mBackward);
     				else if (mMacroblockType.mMacroblockMotionForward && !mMacroblockType.mMacroblockMotionBackward)
-				    	mPictureStore[mCurrent].compensate(mPictureStore[mPrevious], mbRow, mbCol, mForward);
+				    	mCurrent.compensate(mPrevious, mbRow, mbCol, mForward);
     				else if (mMacroblockType.mMacroblockMotionForward && mMacroblockType.mMacroblockMotionBackward) {
-    					mPictureStore[mCurrent].interpolate(mPictureStore[mPrevious], mPictureStore[mFuture], mbRow, mbCol, mForward, mBackward);
+    					mCurrent.interpolate(mPrevious, mFuture, mbRow, mbCol, mForward, mBackward);
 					}
 				}
 			}
@@ -530,7 +895,7 @@ public class Decoder {
 	    }
 
 		if (mMacroblockType.mMacroblockQuant)
-			mQuantizerScale = mInput.getBits(5);
+			setQuantizerScale(mInput.getBits(5));
 
 		if (mMacroblockType.mMacroblockMotionForward) {
 			int motionHorizontalForwardCode = mVlc.getMotionVector(mInput);
@@ -562,21 +927,21 @@ public class Decoder {
 
 		if (mPictureCodingType == Picture.P_TYPE) {	// See 2.4.4.2
 			if (mMacroblockType.mMacroblockMotionForward) {
-				mPictureStore[mCurrent].compensate(mPictureStore[mPrevious], mMacroblockRow, mMacroblockCol, mForward);
+				mCurrent.compensate(mPrevious, mMacroblockRow, mMacroblockCol, mForward);
 			}
 			else {
-				mPictureStore[mCurrent].copy(mPictureStore[mPrevious], mMacroblockRow, mMacroblockCol);
+				mCurrent.copy(mPrevious, mMacroblockRow, mMacroblockCol);
 			}
 		}
 		else if (mPictureCodingType == Picture.B_TYPE) {	// See 2.4.4.3
 			if (mMacroblockType.mMacroblockMotionForward && !mMacroblockType.mMacroblockMotionBackward) {
-				mPictureStore[mCurrent].compensate(mPictureStore[mPrevious], mMacroblockRow, mMacroblockCol, mForward);
+				mCurrent.compensate(mPrevious, mMacroblockRow, mMacroblockCol, mForward);
 			}
 			else if(!mMacroblockType.mMacroblockMotionForward && mMacroblockType.mMacroblockMotionBackward) {
-				mPictureStore[mCurrent].compensate(mPictureStore[mFuture], mMacroblockRow, mMacroblockCol, mBackward);
+				mCurrent.compensate(mFuture, mMacroblockRow, mMacroblockCol, mBackward);
 			}
 			else if (mMacroblockType.mMacroblockMotionForward && mMacroblockType.mMacroblockMotionBackward) {
-				mPictureStore[mCurrent].interpolate(mPictureStore[mPrevious], mPictureStore[mFuture], mMacroblockRow, mMacroblockCol, mForward, mBackward);
+				mCurrent.interpolate(mPrevious, mFuture, mMacroblockRow, mMacroblockCol, mForward, mBackward);
 			}
 		}
 
@@ -602,12 +967,12 @@ public class Decoder {
 				parseBlock(i);
 
 				if (mMacroblockType.mMacroblockIntra) {
-				 	if (i < 4) mPictureStore[mCurrent].setLumBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
-					else	   mPictureStore[mCurrent].setColBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
+				 	if (i < 4) mCurrent.setLumBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
+					else	   mCurrent.setColBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
 				}
 				else {
-					if (i < 4) mPictureStore[mCurrent].correctLumBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
-					else       mPictureStore[mCurrent].correctColBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
+					if (i < 4) mCurrent.correctLumBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
+					else       mCurrent.correctColBlock(mDctRecon, mMacroblockRow, mMacroblockCol, i);
 				}
 			}
 		}
@@ -618,122 +983,152 @@ public class Decoder {
 
     private int[] mNullMatrix = new int[64];
     private int[] mDctRecon   = new int[64];
-    private int[] mDctZigzag  = new int[64];
 
     /*
      * A block is an orthogonal 8-pel by 8-line section of a
      * luminance or chrominance component.
+     *
+     * Each coefficient is dequantized and stored at its place in the
+     * block as soon as it is decoded, so only the coefficients present
+     * in the stream are ever reconstructed.
      */
 	private void parseBlock(int index) throws IOException {
-		Vlc.RunLevel runLevel = mVlc.new RunLevel();
-
         System.arraycopy(mNullMatrix, 0, mDctRecon, 0, 64);
-        System.arraycopy(mNullMatrix, 0, mDctZigzag, 0, 64);
 
         int run = 0;
+        int rows = 1;   // Rows holding non-zero coefficients
+        int dctDCDifferential = 0;
 
 		if (mMacroblockType.mMacroblockIntra) {
             if (index < 4) {
                 int dctDCSizeLuminance = mVlc.decodeDCTDCSizeLuminance(mInput);
-                int dctDCDifferential = 0;
 
                 if (dctDCSizeLuminance != 0) {
                     dctDCDifferential = mInput.getBits(dctDCSizeLuminance);
 
-                    if ((dctDCDifferential & (1 << (dctDCSizeLuminance - 1))) != 0)
-                        mDctZigzag[0] = dctDCDifferential;
-                    else
-                        mDctZigzag[0] = ((-1 << dctDCSizeLuminance) | (dctDCDifferential + 1));
+                    if ((dctDCDifferential & (1 << (dctDCSizeLuminance - 1))) == 0)
+                        dctDCDifferential = ((-1 << dctDCSizeLuminance) | (dctDCDifferential + 1));
                 }
             }
             else {
                 int dctDCSizeChrominance = mVlc.decodeDCTDCSizeChrominance(mInput);
-                int dctDCDifferential = 0;
 
                 if (dctDCSizeChrominance != 0) {
                     dctDCDifferential = mInput.getBits(dctDCSizeChrominance);
 
-                    if ((dctDCDifferential & (1 << (dctDCSizeChrominance - 1))) != 0)
-                        mDctZigzag[0] = dctDCDifferential;
-                    else
-                        mDctZigzag[0] = ((-1 << dctDCSizeChrominance) | (dctDCDifferential + 1));
+                    if ((dctDCDifferential & (1 << (dctDCSizeChrominance - 1))) == 0)
+                        dctDCDifferential = ((-1 << dctDCSizeChrominance) | (dctDCDifferential + 1));
                 }
             }
         }
         else {
             // dctCoeffFirst
-            mVlc.decodeDCTCoeff(mInput, true, runLevel);
+            int runLevel = mVlc.decodeDCTCoeff(mInput, true);
+
+		    run = Vlc.getRun(runLevel);
 
-		    run = runLevel.run;
-	    	mDctZigzag[run] = runLevel.level;
+		    int i = ScanMatrix[run];
+	    	mDctRecon[i] = nonIntraCoefficient(Vlc.getLevel(runLevel), i);
+	    	rows = 1 << (i >> 3);
         }
 
         if (mPictureCodingType != Picture.D_TYPE) {
-            while (mInput.nextBits(2) != 0x2) {
-                // dctCoeffNext
-            	mVlc.decodeDCTCoeff(mInput, false, runLevel);
+            if (mMacroblockType.mMacroblockIntra) {
+                while (mInput.nextBits(2) != 0x2) {
+                    // dctCoeffNext
+                    int runLevel = mVlc.decodeDCTCoeff(mInput, false);
+
+                    run += Vlc.getRun(runLevel) + 1;
+
+                    int i = ScanMatrix[run];
+                    mDctRecon[i] = intraCoefficient(Vlc.getLevel(runLevel), i);
+                    rows |= 1 << (i >> 3);
+                }
+            }
+            else {
+                while (mInput.nextBits(2) != 0x2) {
+                    // dctCoeffNext
+                    int runLevel = mVlc.decodeDCTCoeff(mInput, false);
+
+                    run += Vlc.getRun(runLevel) + 1;
 
-                run += runLevel.run + 1;
-                mDctZigzag[run] = runLevel.level;
+                    int i = ScanMatrix[run];
+                    mDctRecon[i] = nonIntraCoefficient(Vlc.getLevel(runLevel), i);
+                    rows |= 1 << (i >> 3);
+                }
             }
             int endOfBlock = mInput.getBits(2); // Should be == 0x2 (EOB)
 
             if (mMacroblockType.mMacroblockIntra) {
                 if (index == 0)
-                    firstLuminanceBlock(mDctRecon);
+                    firstLuminanceBlock(mDctRecon, dctDCDifferential);
                 else if (index >= 1 && index <= 3)
-                    nextLuminanceBlock(mDctRecon);
+                    nextLuminanceBlock(mDctRecon, dctDCDifferential);
                 else if (index == 4)
-                    cbBlock(mDctRecon);
+                    cbBlock(mDctRecon, dctDCDifferential);
                 else if (index == 5)
-                    crBlock(mDctRecon);
+                    crBlock(mDctRecon, dctDCDifferential);
 
                 mPastIntraAddress = mMacroblockAddress;
             }
-            else {
-            	// See ISO/IEC 11172 2.4.4.2 / 2.4.4.3
-            	for (int i = 0; i < 64; ++i) {
-                    int idx = ScanMatrix[i];
-                    mDctRecon[i] = ((2 * mDctZigzag[idx] + sign(mDctZigzag[idx])) * mQuantizerScale * NonIntraQuantizerMatrix[i]) >> 4;
-
-                    if ((mDctRecon[i] & 1) == 0) {
-                        mDctRecon[i] -= sign(mDctRecon[i]);
-                        if (mDctRecon[i] > 2047) mDctRecon[i] = 2047;
-                        if (mDctRecon[i] < -2048) mDctRecon[i] = -2048;
-
-                        if (mDctZigzag[idx] == 0)
-                            mDctRecon[i] = 0;
-                    }
-                }
-            }
 
-            mIdct.calculate(mDctRecon);
+            // "run" is now the position of the last coefficient
+            if (mReducedIdct == null)
+                mIdct.calculate(mDctRecon, run, rows);
+            else
+                mReducedIdct.calculate(mDctRecon, run, rows);
         }
 	}
 
 	/*
-	 * Helper function
+	 * Reconstruct an AC coefficient of an intra block at position i,
+	 * as defined in ISO/IEC 11172 2.4.4.1
 	 */
-	private int sign(int n) {
-		return n > 0? 1 : (n < 0? -1 : 0);
+	private int intraCoefficient(int level, int i) {
+		int value = (level * mIntraWeights[i]) >> 3;
+
+		// Oddification (mismatch control) and saturation
+		if ((value & 1) == 0 && value != 0) {
+			if (value > 0) {
+				value -= 1;
+				if (value > 2047) value = 2047;
+			}
+			else {
+				value += 1;
+				if (value < -2048) value = -2048;
+			}
+		}
+
+		return value;
 	}
 
 	/*
-	 * Reconstruct DCT coefficients, as defined in ISO/IEC 11172 2.4.4.1
+	 * Reconstruct a coefficient of a non-intra block at position i,
+	 * see ISO/IEC 11172 2.4.4.2 / 2.4.4.3. The level is never zero.
 	 */
-	private void firstLuminanceBlock(int[] dct_recon) throws IOException {
-		for (int i = 0; i < 64; ++i) {
-			int index = ScanMatrix[i];
-			dct_recon[i] = (mDctZigzag[index] * mQuantizerScale * IntraQuantizerMatrix[i]) >> 3;
-
-			if ((dct_recon[i] & 1) == 0) {
-				dct_recon[i] -= sign(dct_recon[i]);
-				if (dct_recon[i] > 2047) dct_recon[i] = 2047;
-				if (dct_recon[i] < -2048) dct_recon[i] = -2048;
+	private int nonIntraCoefficient(int level, int i) {
+		int value = (((level << 1) + (level > 0? 1 : -1)) * mNonIntraWeights[i]) >> 4;
+
+		if ((value & 1) == 0 && value != 0) {
+			if (value > 0) {
+				value -= 1;
+				if (value > 2047) value = 2047;
+			}
+			else {
+				value += 1;
+				if (value < -2048) value = -2048;
 			}
 		}
 
-		dct_recon[0] = mDctZigzag[0] << 3;
+		return value;
+	}
+
+	/*
+	 * Reconstruct the DC coefficient of intra blocks, as defined in
+	 * ISO/IEC 11172 2.4.4.1
+	 */
+	private void firstLuminanceBlock(int[] dct_recon, int dctDCDifferential) {
+		dct_recon[0] = dctDCDifferential << 3;
 
 		if (mMacroblockAddress - mPastIntraAddress > 1)
 			dct_recon[0] += 1024;
@@ -743,36 +1138,14 @@ public class Decoder {
 		mDctDcYPast = dct_recon[0];
 	}
 
-	private void nextLuminanceBlock(int[] dct_recon) throws IOException {
-		for (int i = 0; i < 64; ++i) {
-			int index = ScanMatrix[i];
-			dct_recon[i] = (mDctZigzag[index] * mQuantizerScale * IntraQuantizerMatrix[i]) >> 3;
-
-			if ((dct_recon[i] & 1) == 0) {
-				dct_recon[i] -= sign(dct_recon[i]);
-				if (dct_recon[i] > 2047) dct_recon[i] = 2047;
-				if (dct_recon[i] < -2048) dct_recon[i] = -2048;
-			}
-		}
-
-		dct_recon[0] = mDctDcYPast + (mDctZigzag[0] << 3);
+	private void nextLuminanceBlock(int[] dct_recon, int dctDCDifferential) {
+		dct_recon[0] = mDctDcYPast + (dctDCDifferential << 3);
 
 		mDctDcYPast = dct_recon[0];
 	}
 
-	private void cbBlock(int[] dct_recon) throws IOException {
-		for (int i = 0; i < 64; ++i) {
-			int index = ScanMatrix[i];
-			dct_recon[i] = (mDctZigzag[index] * mQuantizerScale * IntraQuantizerMatrix[i]) >> 3;
-
-			if ((dct_recon[i] & 1) == 0) {
-				dct_recon[i] -= sign(dct_recon[i]);
-				if (dct_recon[i] > 2047) dct_recon[i] = 2047;
-				if (dct_recon[i] < -2048) dct_recon[i] = -2048;
-			}
-		}
-
-		dct_recon[0] = mDctZigzag[0] << 3;
+	private void cbBlock(int[] dct_recon, int dctDCDifferential) {
+		dct_recon[0] = dctDCDifferential << 3;
 
 		if (mMacroblockAddress - mPastIntraAddress > 1)
 			dct_recon[0] += 1024;
@@ -782,19 +1155,8 @@ public class Decoder {
 		mDctDcCbPast = dct_recon[0];
 	}
 
-	private void crBlock(int[] dct_recon) throws IOException {
-		for (int i = 0; i < 64; ++i) {
-			int index = ScanMatrix[i];
-			dct_recon[i] = (mDctZigzag[index] * mQuantizerScale * IntraQuantizerMatrix[i]) >> 3;
-
-			if ((dct_recon[i] & 1) == 0) {
-				dct_recon[i] -= sign(dct_recon[i]);
-				if (dct_recon[i] > 2047) dct_recon[i] = 2047;
-				if (dct_recon[i] < -2048) dct_recon[i] = -2048;
-			}
-		}
-
-		dct_recon[0] = mDctZigzag[0] << 3;
+	private void crBlock(int[] dct_recon, int dctDCDifferential) {
+		dct_recon[0] = dctDCDifferential << 3;
 
 		if (mMacroblockAddress - mPastIntraAddress > 1)
 			dct_recon[0] += 1024;
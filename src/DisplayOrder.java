@@ -0,0 +1,58 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * Puts decoded pictures back in display order. A reference picture
+ * (I or P) is decoded before the B-pictures shown ahead of it, so it is
+ * held until the next reference picture arrives or the stream ends.
+ * The first picture is shown at once, and so is the first one after a
+ * seek when no B-picture to be shown before it follows.
+ *
+ * The caller releases every picture it is given once it is shown;
+ * pictures dropped by a seek are released here.
+ */
+public class DisplayOrder {
+    private Picture mStored = null;
+    private boolean mStarted = false;
+
+    /*
+     * Takes the next picture from the decoder. Returns the picture to
+     * show now, or null.
+     */
+    public Picture put(Picture current) {
+        // Reordering starts over after a seek
+        if (current.mFirstAfterSeek && mStored != null) {
+            mStored.release();
+            mStored = null;
+        }
+
+        if (current.mType != Picture.I_TYPE && current.mType != Picture.P_TYPE)
+            return current;
+
+        boolean first = !mStarted || current.mFirstAfterSeek;
+        mStarted = true;
+
+        if (first && !current.mBPicturesFollow)
+            return current;
+
+        Picture shown = mStored;
+        mStored = current;
+
+        return shown;
+    }
+
+    /*
+     * At the end of the stream, returns the reference picture still
+     * held, or null
+     */
+    public Picture flush() {
+        Picture shown = mStored;
+        mStored = null;
+
+        return shown;
+    }
+}
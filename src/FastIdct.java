@@ -0,0 +1,199 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * Inverse DCT using 32-bit integer arithmetic only. LoefflerIdct works
+ * on long values and shifts after every multiplication, which costs twice
+ * as much on 32-bit virtual machines. This is the Chen-Wang transform: the
+ * row pass keeps 8 fractional bits, the column pass 14, and all
+ * intermediate values stay within 32 bits for coefficients in the
+ * -2048..2047 range. Output samples are clipped to -256..255, as
+ * required by the standard.
+ *
+ * Its accuracy can be checked against IEEE Std 1180-1990 with
+ * IdctConformance.
+ *
+ * References:
+ *   Z. Wang, "Fast Algorithms for the Discrete W Transform and for the
+ *   Discrete Fourier Transform", IEEE Trans. on ASSP, Vol. ASSP-32,
+ *   pp. 803-816, Aug. 1984.
+ */
+public class FastIdct implements Idct {
+    // 2048 * sqrt(2) * cos(n * pi / 16)
+    private static final int W1 = 2841;
+    private static final int W2 = 2676;
+    private static final int W3 = 2408;
+    private static final int W5 = 1609;
+    private static final int W6 = 1108;
+    private static final int W7 = 565;
+
+    public void calculate(int[] dct_coeff) {
+        for (int row = 0; row < DCT_SIZE; ++row)
+            idctRow(dct_coeff, row * DCT_SIZE);
+
+        for (int col = 0; col < DCT_SIZE; ++col)
+            idctCol(dct_coeff, col);
+    }
+
+    /*
+     * Rows left out of the mask are all zero, so they are skipped
+     */
+    public void calculate(int[] dct_coeff, int last, int rows) {
+        if (last == 0) {
+            final int value = clip(((dct_coeff[0] << 3) + 32) >> 6);
+
+            for (int i = 0; i < DCT_DIM; ++i)
+                dct_coeff[i] = value;
+
+            return;
+        }
+
+        for (int row = 0; row < DCT_SIZE; ++row) {
+            if ((rows & (1 << row)) != 0)
+                idctRow(dct_coeff, row * DCT_SIZE);
+        }
+
+        for (int col = 0; col < DCT_SIZE; ++col)
+            idctCol(dct_coeff, col);
+    }
+
+    private void idctRow(int[] blk, int i) {
+        int x0, x1, x2, x3, x4, x5, x6, x7, x8;
+
+        x1 = blk[i + 4] << 11;
+        x2 = blk[i + 6];
+        x3 = blk[i + 2];
+        x4 = blk[i + 1];
+        x5 = blk[i + 7];
+        x6 = blk[i + 5];
+        x7 = blk[i + 3];
+
+        // Only the DC term
+        if ((x1 | x2 | x3 | x4 | x5 | x6 | x7) == 0) {
+            final int value = blk[i] << 3;
+
+            blk[i + 0] = value;
+            blk[i + 1] = value;
+            blk[i + 2] = value;
+            blk[i + 3] = value;
+            blk[i + 4] = value;
+            blk[i + 5] = value;
+            blk[i + 6] = value;
+            blk[i + 7] = value;
+            return;
+        }
+
+        x0 = (blk[i] << 11) + 128;	// For proper rounding in the fourth stage
+
+        // First stage
+        x8 = W7 * (x4 + x5);
+        x4 = x8 + (W1 - W7) * x4;
+        x5 = x8 - (W1 + W7) * x5;
+        x8 = W3 * (x6 + x7);
+        x6 = x8 - (W3 - W5) * x6;
+        x7 = x8 - (W3 + W5) * x7;
+
+        // Second stage
+        x8 = x0 + x1;
+        x0 -= x1;
+        x1 = W6 * (x3 + x2);
+        x2 = x1 - (W2 + W6) * x2;
+        x3 = x1 + (W2 - W6) * x3;
+        x1 = x4 + x6;
+        x4 -= x6;
+        x6 = x5 + x7;
+        x5 -= x7;
+
+        // Third stage
+        x7 = x8 + x3;
+        x8 -= x3;
+        x3 = x0 + x2;
+        x0 -= x2;
+        x2 = (181 * (x4 + x5) + 128) >> 8;
+        x4 = (181 * (x4 - x5) + 128) >> 8;
+
+        // Fourth stage
+        blk[i + 0] = (x7 + x1) >> 8;
+        blk[i + 1] = (x3 + x2) >> 8;
+        blk[i + 2] = (x0 + x4) >> 8;
+        blk[i + 3] = (x8 + x6) >> 8;
+        blk[i + 4] = (x8 - x6) >> 8;
+        blk[i + 5] = (x0 - x4) >> 8;
+        blk[i + 6] = (x3 - x2) >> 8;
+        blk[i + 7] = (x7 - x1) >> 8;
+    }
+
+    private void idctCol(int[] blk, int i) {
+        int x0, x1, x2, x3, x4, x5, x6, x7, x8;
+
+        x1 = blk[i + 8 * 4] << 8;
+        x2 = blk[i + 8 * 6];
+        x3 = blk[i + 8 * 2];
+        x4 = blk[i + 8 * 1];
+        x5 = blk[i + 8 * 7];
+        x6 = blk[i + 8 * 5];
+        x7 = blk[i + 8 * 3];
+
+        // Only the DC term
+        if ((x1 | x2 | x3 | x4 | x5 | x6 | x7) == 0) {
+            final int value = clip((blk[i] + 32) >> 6);
+
+            blk[i + 8 * 0] = value;
+            blk[i + 8 * 1] = value;
+            blk[i + 8 * 2] = value;
+            blk[i + 8 * 3] = value;
+            blk[i + 8 * 4] = value;
+            blk[i + 8 * 5] = value;
+            blk[i + 8 * 6] = value;
+            blk[i + 8 * 7] = value;
+            return;
+        }
+
+        x0 = (blk[i] << 8) + 8192;
+
+        // First stage
+        x8 = W7 * (x4 + x5) + 4;
+        x4 = (x8 + (W1 - W7) * x4) >> 3;
+        x5 = (x8 - (W1 + W7) * x5) >> 3;
+        x8 = W3 * (x6 + x7) + 4;
+        x6 = (x8 - (W3 - W5) * x6) >> 3;
+        x7 = (x8 - (W3 + W5) * x7) >> 3;
+
+        // Second stage
+        x8 = x0 + x1;
+        x0 -= x1;
+        x1 = W6 * (x3 + x2) + 4;
+        x2 = (x1 - (W2 + W6) * x2) >> 3;
+        x3 = (x1 + (W2 - W6) * x3) >> 3;
+        x1 = x4 + x6;
+        x4 -= x6;
+        x6 = x5 + x7;
+        x5 -= x7;
+
+        // Third stage
+        x7 = x8 + x3;
+        x8 -= x3;
+        x3 = x0 + x2;
+        x0 -= x2;
+        x2 = (181 * (x4 + x5) + 128) >> 8;
+        x4 = (181 * (x4 - x5) + 128) >> 8;
+
+        // Fourth stage
+        blk[i + 8 * 0] = clip((x7 + x1) >> 14);
+        blk[i + 8 * 1] = clip((x3 + x2) >> 14);
+        blk[i + 8 * 2] = clip((x0 + x4) >> 14);
+        blk[i + 8 * 3] = clip((x8 + x6) >> 14);
+        blk[i + 8 * 4] = clip((x8 - x6) >> 14);
+        blk[i + 8 * 5] = clip((x0 - x4) >> 14);
+        blk[i + 8 * 6] = clip((x3 - x2) >> 14);
+        blk[i + 8 * 7] = clip((x7 - x1) >> 14);
+    }
+
+    private static int clip(int value) {
+        return value < -256? -256 : (value > 255? 255 : value);
+    }
+}
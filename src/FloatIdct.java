@@ -0,0 +1,124 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * Inverse DCT on single precision floating point, using the Arai, Agui
+ * and Nakajima (AAN) factorization: 5 multiplications per 1-D transform,
+ * with the remaining scale factors folded into the input coefficients.
+ * Cheap where the virtual machine has hardware floating point, very
+ * slow where it doesn't. Needs CLDC 1.1.
+ *
+ * References:
+ *   Y. Arai, T. Agui and M. Nakajima, "A Fast DCT-SQ Scheme for Images",
+ *   Trans. IEICE, Vol. E-71, No. 11, pp. 1095-1097, Nov. 1988.
+ */
+public class FloatIdct implements Idct {
+    // Input scale: s(u) * s(v) / 8, with s(0) = 1, s(k) = sqrt(2) * cos(k * pi / 16)
+    private final float[] mScale = new float[DCT_DIM];
+
+    private final float[] mWork = new float[DCT_DIM];
+
+    public FloatIdct() {
+        final double[] factor = new double[DCT_SIZE];
+
+        factor[0] = 1.0;
+
+        for (int k = 1; k < DCT_SIZE; ++k)
+            factor[k] = Math.sqrt(2.0) * Math.cos(k * Math.PI / 16.0);
+
+        for (int v = 0; v < DCT_SIZE; ++v)
+            for (int u = 0; u < DCT_SIZE; ++u)
+                mScale[v * DCT_SIZE + u] = (float)(factor[v] * factor[u] / 8.0);
+    }
+
+    public void calculate(int[] dct_coeff) {
+        calculate(dct_coeff, DCT_DIM - 1, 0xff);
+    }
+
+    public void calculate(int[] dct_coeff, int last, int rows) {
+        final float[] ws = mWork;
+
+        for (int row = 0; row < DCT_SIZE; ++row) {
+            final int i = row * DCT_SIZE;
+
+            if ((rows & (1 << row)) == 0) {
+                for (int j = 0; j < DCT_SIZE; ++j)
+                    ws[i + j] = 0.0f;
+            }
+            else {
+                for (int j = 0; j < DCT_SIZE; ++j)
+                    ws[i + j] = dct_coeff[i + j] * mScale[i + j];
+
+                idct(ws, i, 1);
+            }
+        }
+
+        for (int col = 0; col < DCT_SIZE; ++col)
+            idct(ws, col, DCT_SIZE);
+
+        for (int i = 0; i < DCT_DIM; ++i) {
+            final float value = ws[i];
+            final int sample = (value < 0.0f)? -(int)(0.5f - value) : (int)(value + 0.5f);
+
+            dct_coeff[i] = sample < -256? -256 : (sample > 255? 255 : sample);
+        }
+    }
+
+    /*
+     * One dimensional transform of the 8 values at "i", "stride" apart
+     */
+    private void idct(float[] ws, int i, int stride) {
+        // Even part
+        float tmp0 = ws[i];
+        float tmp1 = ws[i + 2 * stride];
+        float tmp2 = ws[i + 4 * stride];
+        float tmp3 = ws[i + 6 * stride];
+
+        float tmp10 = tmp0 + tmp2;
+        float tmp11 = tmp0 - tmp2;
+
+        float tmp13 = tmp1 + tmp3;
+        float tmp12 = (tmp1 - tmp3) * 1.414213562f - tmp13;
+
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+
+        // Odd part
+        float tmp4 = ws[i + 1 * stride];
+        float tmp5 = ws[i + 3 * stride];
+        float tmp6 = ws[i + 5 * stride];
+        float tmp7 = ws[i + 7 * stride];
+
+        final float z13 = tmp6 + tmp5;
+        final float z10 = tmp6 - tmp5;
+        final float z11 = tmp4 + tmp7;
+        final float z12 = tmp4 - tmp7;
+
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562f;
+
+        final float z5 = (z10 + z12) * 1.847759065f;
+
+        tmp10 = 1.082392200f * z12 - z5;
+        tmp12 = -2.613125930f * z10 + z5;
+
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+
+        ws[i + 0 * stride] = tmp0 + tmp7;
+        ws[i + 7 * stride] = tmp0 - tmp7;
+        ws[i + 1 * stride] = tmp1 + tmp6;
+        ws[i + 6 * stride] = tmp1 - tmp6;
+        ws[i + 2 * stride] = tmp2 + tmp5;
+        ws[i + 5 * stride] = tmp2 - tmp5;
+        ws[i + 4 * stride] = tmp3 + tmp4;
+        ws[i + 3 * stride] = tmp3 - tmp4;
+    }
+}
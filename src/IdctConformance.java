@@ -0,0 +1,271 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * Accuracy test for inverse DCT implementations, as specified by IEEE
+ * Std 1180-1990. Blocks of random samples in a given range are
+ * transformed with a double precision forward DCT, and the rounded
+ * coefficients go through both a double precision reference IDCT and
+ * the implementation under test. Over 10000 blocks per range, the
+ * implementation must meet:
+ *
+ *   peak error            <= 1       at every position
+ *   mean square error     <= 0.06    at every position, 0.02 overall
+ *   mean error            <= 0.015   at every position, 0.0015 overall
+ *
+ * and an all-zero block must give an all-zero result. The reference
+ * IDCT is ReferenceIdct. A throughput report ranks implementations by
+ * blocks per second on the running virtual machine.
+ *
+ * This class uses floating point, so it needs CLDC 1.1 (or a desktop
+ * virtual machine); the decoder itself does not.
+ */
+public class IdctConformance {
+    public static final int BLOCKS = 10000;
+
+    // Input ranges (-L..H) of the standard
+    private static final int[][] RANGES = {
+        { 256, 255 }, { 5, 5 }, { 300, 300 }
+    };
+
+    // Forward DCT basis: mBasis[x][u] = C(u) / 2 * cos((2x + 1) * u * pi / 16)
+    private final double[][] mBasis = new double[8][8];
+
+    private final Idct mReference = new ReferenceIdct();
+
+    private StringBuffer mReport = new StringBuffer();
+    private boolean mPassed;
+
+    private int mRandom;
+
+    public IdctConformance() {
+        for (int x = 0; x < 8; ++x) {
+            for (int u = 0; u < 8; ++u) {
+                double scale = (u == 0)? 0.5 / Math.sqrt(2.0) : 0.5;
+
+                mBasis[x][u] = scale * Math.cos((2 * x + 1) * u * Math.PI / 16.0);
+            }
+        }
+    }
+
+    /*
+     * Run every range with both signs. Returns true if all of them
+     * conform; details are available from getReport().
+     */
+    public boolean test(Idct idct) {
+        mReport.setLength(0);
+        mPassed = true;
+
+        for (int i = 0; i < RANGES.length; ++i) {
+            testRange(idct, RANGES[i][0], RANGES[i][1], 1);
+            testRange(idct, RANGES[i][0], RANGES[i][1], -1);
+        }
+
+        // Zero in, zero out
+        int[] block = new int[64];
+
+        idct.calculate(block);
+
+        for (int i = 0; i < 64; ++i) {
+            if (block[i] != 0) {
+                mPassed = false;
+                mReport.append("FAIL: non-zero output for a zero block\n");
+                break;
+            }
+        }
+
+        mReport.append(mPassed? "Conformant\n" : "Not conformant\n");
+
+        return mPassed;
+    }
+
+    public String getReport() {
+        return mReport.toString();
+    }
+
+    private void testRange(Idct idct, int low, int high, int sign) {
+        int[] block     = new int[64];
+        int[] coeff     = new int[64];
+        int[] reference = new int[64];
+        double[] data   = new double[64];
+
+        int[] peak      = new int[64];
+        long[] error    = new long[64];
+        long[] square   = new long[64];
+
+        mRandom = 1;
+
+        for (int n = 0; n < BLOCKS; ++n) {
+            for (int i = 0; i < 64; ++i)
+                data[i] = sign * random(low, high);
+
+            forward(data);
+
+            for (int i = 0; i < 64; ++i)
+                coeff[i] = clip(round(data[i]), -2048, 2047);
+
+            System.arraycopy(coeff, 0, reference, 0, 64);
+            System.arraycopy(coeff, 0, block, 0, 64);
+
+            mReference.calculate(reference);
+
+            idct.calculate(block);
+
+            for (int i = 0; i < 64; ++i) {
+                int e = clip(block[i], -256, 255) - reference[i];
+
+                if (Math.abs(e) > peak[i])
+                    peak[i] = Math.abs(e);
+
+                error[i]  += e;
+                square[i] += e * e;
+            }
+        }
+
+        int peakError = 0;
+        double worstMse = 0, worstMean = 0;
+        long totalError = 0, totalSquare = 0;
+
+        for (int i = 0; i < 64; ++i) {
+            peakError = Math.max(peakError, peak[i]);
+            worstMse  = Math.max(worstMse, (double)square[i] / BLOCKS);
+            worstMean = Math.max(worstMean, Math.abs((double)error[i] / BLOCKS));
+
+            totalError  += error[i];
+            totalSquare += square[i];
+        }
+
+        double mse  = (double)totalSquare / (64.0 * BLOCKS);
+        double mean = Math.abs((double)totalError / (64.0 * BLOCKS));
+
+        boolean passed = peakError <= 1 && worstMse <= 0.06 && mse <= 0.02 && worstMean <= 0.015 && mean <= 0.0015;
+
+        mReport.append(passed? "pass" : "FAIL")
+               .append(" L=").append(low).append(" H=").append(high).append(" sign=").append(sign)
+               .append(": peak ").append(peakError)
+               .append(", mse ").append(worstMse).append(" / ").append(mse)
+               .append(", mean ").append(worstMean).append(" / ").append(mean)
+               .append('\n');
+
+        mPassed &= passed;
+    }
+
+    /*
+     * Random number generator of the standard, on 32-bit arithmetic.
+     * Returns a value in -L..H.
+     */
+    private int random(int low, int high) {
+        mRandom = mRandom * 1103515245 + 12345;
+
+        double x = (mRandom & 0x7ffffffe) / (double)0x7fffffff;
+
+        return (int)(x * (low + high + 1)) - low;
+    }
+
+    private void forward(double[] block) {
+        double[] temp = new double[64];
+
+        for (int v = 0; v < 8; ++v) {
+            for (int u = 0; u < 8; ++u) {
+                double sum = 0;
+
+                for (int y = 0; y < 8; ++y)
+                    for (int x = 0; x < 8; ++x)
+                        sum += mBasis[y][v] * mBasis[x][u] * block[y * 8 + x];
+
+                temp[v * 8 + u] = sum;
+            }
+        }
+
+        System.arraycopy(temp, 0, block, 0, 64);
+    }
+
+    private static int round(double value) {
+        return (int)Math.floor(value + 0.5);
+    }
+
+    private static int clip(int value, int low, int high) {
+        return value < low? low : (value > high? high : value);
+    }
+
+    /*
+     * Throughput, in blocks per second, of the given transforms over
+     * a fixed set of random coefficient blocks, fastest first
+     */
+    public static String benchmark(Idct[] idcts, int iterations) {
+        IdctConformance source = new IdctConformance();
+        int[][] blocks = new int[64][64];
+        int[] block = new int[64];
+
+        source.mRandom = 1;
+
+        for (int n = 0; n < blocks.length; ++n) {
+            double[] data = new double[64];
+
+            for (int i = 0; i < 64; ++i)
+                data[i] = source.random(256, 255);
+
+            source.forward(data);
+
+            for (int i = 0; i < 64; ++i)
+                blocks[n][i] = clip(round(data[i]), -2048, 2047);
+        }
+
+        long[] rates = new long[idcts.length];
+
+        for (int k = 0; k < idcts.length; ++k) {
+            long start = System.currentTimeMillis();
+
+            for (int j = 0; j < iterations; ++j) {
+                for (int n = 0; n < blocks.length; ++n) {
+                    System.arraycopy(blocks[n], 0, block, 0, 64);
+                    idcts[k].calculate(block);
+                }
+            }
+
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+
+            rates[k] = (long)iterations * blocks.length * 1000 / elapsed;
+        }
+
+        StringBuffer report = new StringBuffer();
+        boolean[] listed = new boolean[idcts.length];
+
+        for (int rank = 1; rank <= idcts.length; ++rank) {
+            int best = -1;
+
+            for (int k = 0; k < idcts.length; ++k) {
+                if (!listed[k] && (best < 0 || rates[k] > rates[best]))
+                    best = k;
+            }
+
+            listed[best] = true;
+
+            report.append(rank).append(". ").append(idcts[best].getClass().getName())
+                  .append(": ").append(rates[best]).append(" blocks/s\n");
+        }
+
+        return report.toString();
+    }
+
+    public static void main(String[] args) {
+        Idct[] idcts = {
+            new LoefflerIdct(), new FastIdct(), new FloatIdct(), new ReferenceIdct()
+        };
+
+        IdctConformance conformance = new IdctConformance();
+
+        for (int k = 0; k < idcts.length; ++k) {
+            conformance.test(idcts[k]);
+
+            System.out.println(idcts[k].getClass().getName());
+            System.out.print(conformance.getReport());
+        }
+
+        System.out.print(benchmark(idcts, 5000));
+    }
+}
@@ -8,7 +8,7 @@
 import java.io.*;
 
 public class InputBitStream {
-    private static final int BUFFER_SIZE = 16384;
+    private static final int START_CODE_PREFIX = 0x000001;
 
     // Mask for bitstream manipulation
     private static final int[] mask = {
@@ -49,80 +49,89 @@ public class InputBitStream {
         0x80000000
     };
 
-    private InputStream mInput;
+    private ByteSource mSource;
+
+    // Current window of the source, read in place
     private byte[] mBuffer;
-    private int mBufferLength = BUFFER_SIZE;
-    private int mIndex = BUFFER_SIZE << 3;
+    private int mBufferStart = 0;   // Start of the window
+    private int mBufferLength = 0;  // End of the window
+    private int mBufferIndex = 0;   // Next byte to be moved into the cache
+
+    private long mWindowPosition = 0;   // Stream offset of the window start
+
+    /*
+     * Bit reservoir: the lowest mCacheSize bits of mCache are the
+     * next bits in the stream, most significant bit first. Values
+     * up to 32 bits are served from here with a single shift and
+     * mask, and the reservoir is refilled a word at a time.
+     */
+    private long mCache = 0;
+    private int mCacheSize = 0;
 
     public InputBitStream(String filename) throws IOException {
-        mInput = new DataInputStream(getClass().getResourceAsStream(filename));
-        mBuffer = new byte[mBufferLength];
+        this(new StreamSource(new DataInputStream(InputBitStream.class.getResourceAsStream(filename))));
+    }
+
+    public InputBitStream(ByteSource source) throws IOException {
+        mSource = source;
 
         fillBuffer();
     }
 
     public void close() {
-        try {
-            mInput.close();
-        }
-        catch (IOException ignore) {}
+        mSource.close();
     }
 
     private void fillBuffer() throws IOException {
-        int byteOffset = mIndex >>> 3;
-        int bytesLeft  = mBufferLength - byteOffset;
+        int length = mSource.read();
 
-        // Move remaining bytes to the beginning of the buffer
-        System.arraycopy(mBuffer, byteOffset, mBuffer, 0, bytesLeft);
+        if (length <= 0)
+            throw new EOFException();
 
-        // Note: bytesLeft and byteOffset are interchanged due
-        // to the above buffer relocation
-        int length = mInput.read(mBuffer, bytesLeft, byteOffset);
+        mWindowPosition += mBufferLength - mBufferStart;
 
-        if (length < byteOffset)
-            mBufferLength = bytesLeft + length;
-
-        mIndex &= 0x7;  // Now we are at the first byte
+        mBuffer       = mSource.getBuffer();
+        mBufferStart  = mSource.getOffset();
+        mBufferIndex  = mBufferStart;
+        mBufferLength = mBufferStart + length;
     }
 
     /*
-     * Peek "count" bits without removing them from the buffer
+     * Make sure at least "count" bits are available in the reservoir.
+     * It is only called when less than "count" (<= 32) bits are left,
+     * so a whole 32-bit word always fits.
      */
-    public int nextBits(int count) throws IOException {
-        int value = 0;
-
-        if (mIndex + count > mBufferLength << 3)
-            fillBuffer();
+    private void refill(int count) throws IOException {
+        if (mBufferLength - mBufferIndex >= 4) {
+            int word = ((mBuffer[mBufferIndex]     & 0xff) << 24) |
+                       ((mBuffer[mBufferIndex + 1] & 0xff) << 16) |
+                       ((mBuffer[mBufferIndex + 2] & 0xff) << 8)  |
+                        (mBuffer[mBufferIndex + 3] & 0xff);
 
-        int byteOffset = mIndex >>> 3;
-
-    	int end = (mIndex + count - 1) >>> 3;  // End byte position
-        int room = 8 - (mIndex % 8);           // Room in current byte
-
-        if (room >= count) {
-            value = (mBuffer[byteOffset] >>> (room - count)) & mask[count];
-            return value;
+            mCache = (mCache << 32) | (word & 0xffffffffL);
+            mCacheSize += 32;
+            mBufferIndex += 4;
+            return;
         }
 
-        int leftover = (mIndex + count) % 8;        // Leftover bits in last byte
-
-        value |= mBuffer[byteOffset] & mask[room];  // Fill out first byte
+        // Close to the end of the buffer: go byte by byte
+        while (mCacheSize < count) {
+            if (mBufferIndex == mBufferLength)
+                fillBuffer();
 
-        for (byteOffset++; byteOffset < end; byteOffset++) {
-            value <<= 8;                            // Shift and
-            value |= mBuffer[byteOffset] & mask[8]; // Put next byte
+            mCache = (mCache << 8) | (mBuffer[mBufferIndex++] & 0xff);
+            mCacheSize += 8;
         }
+    }
 
-        if (leftover > 0) {
-            value <<= leftover;                     // Make room for remaining bits
-            value |= (mBuffer[byteOffset] >>> (8 - leftover)) & mask[leftover];
-        }
-        else {
-            value <<= 8;
-            value |= mBuffer[byteOffset] & mask[8];
-        }
+    /*
+     * Peek "count" bits without removing them from the buffer
+     */
+    public int nextBits(int count) throws IOException {
+        if (mCacheSize < count)
+            refill(count);
 
-        return value;
+        return (int)(mCache >>> (mCacheSize - count)) & mask[count];
     }
 
     public int nextSignedBits(int count) throws IOException {
@@ -138,18 +147,111 @@ public class InputBitStream {
      * Remove "count" bits from the buffer
      */
     public int getBits(int count) throws IOException {
-    	int value = nextBits(count);
-        mIndex += count;
-        return value;
+        if (mCacheSize < count)
+            refill(count);
+
+        mCacheSize -= count;
+
+        return (int)(mCache >>> mCacheSize) & mask[count];
     }
 
     public int getSignedBits(int count) throws IOException {
-    	int value = nextSignedBits(count);
-        mIndex += count;
-        return value;
+        int value = getBits(count);
+
+        if ((smask[count] & value) != 0)
+            return value | cmask[count];
+        else
+            return value;
+    }
+
+    /*
+     * Skip to the next byte aligned 0x000001 prefix. The window is
+     * scanned in place; bytes still in the reservoir are given back
+     * first, and only a prefix spanning two windows is checked
+     * through the reservoir byte by byte.
+     */
+    public void nextStartCode() throws IOException {
+        // Discard bits up to the next byte boundary
+        mCacheSize &= ~0x7;
+
+        while (true) {
+            int cached = mCacheSize >>> 3;
+
+            if (cached <= mBufferIndex - mBufferStart && mBufferLength - mBufferIndex + cached >= 3) {
+                mBufferIndex -= cached;
+                mCacheSize = 0;
+
+                if (scanBuffer())
+                    return;
+            }
+
+            if (nextBits(24) == START_CODE_PREFIX)
+                return;
+
+            mCacheSize -= 8;
+        }
+    }
+
+    /*
+     * Look for a start code prefix in the current window. The third
+     * byte of each candidate decides how far to move: anything above
+     * 0x01 rules out the three positions ending there, so in payload
+     * data only every third byte is read.
+     */
+    private boolean scanBuffer() {
+        final byte[] buffer = mBuffer;
+        final int end = mBufferLength - 3;
+
+        int i = mBufferIndex;
+
+        while (i <= end) {
+            int value = buffer[i + 2];
+
+            if (value == 0) {
+                ++i;
+            }
+            else if (value == 1 && buffer[i] == 0 && buffer[i + 1] == 0) {
+                mBufferIndex = i;
+                return true;
+            }
+            else {
+                i += 3;
+            }
+        }
+
+        // No prefix starts before i
+        mBufferIndex = i;
+        return false;
+    }
+
+    /*
+     * Continue reading at the given stream offset. Only possible
+     * when the underlying source is seekable.
+     */
+    public void seek(long position) throws IOException {
+        if (!(mSource instanceof SeekableSource))
+            throw new IOException("Source is not seekable");
+
+        ((SeekableSource)mSource).seek(position);
+
+        mCache = 0;
+        mCacheSize = 0;
+
+        mBufferStart = mBufferIndex = mBufferLength = 0;
+        mWindowPosition = position;
+
+        fillBuffer();
+    }
+
+    /*
+     * Stream offset, in bytes, of the byte holding the next bit
+     */
+    public long getPosition() {
+        return mWindowPosition + (mBufferIndex - mBufferStart) - ((mCacheSize + 7) >>> 3);
     }
 
     public boolean isByteAligned() {
-    	return (mIndex % 8) == 0;
+        // The reservoir is always filled with whole bytes
+        return (mCacheSize & 0x7) == 0;
     }
 }
@@ -30,6 +30,13 @@ public class MotionVector {
 	private int mVector;
 	private boolean mFullPelVector;
 
+	// Reduced resolution decoding divides vectors by 2^mScale
+	private int mScale = 0;
+
+	public void setScale(int scale) {
+		mScale = scale;
+	}
+
 	public void init(int v, boolean f) {
 		mVector = v;
 		mFullPelVector = f;
@@ -118,6 +125,10 @@ public class MotionVector {
 	    if (mFullPelVector)
 	        reconDown <<= 1;
 
+	    // Components in half pels of the (possibly reduced) picture
+	    reconRight >>= mScale;
+	    reconDown  >>= mScale;
+
 	    // LUMINANCE
 	    mRightLum       = reconRight >> 1;
 	    mDownLum        = reconDown >> 1;
@@ -11,6 +11,14 @@
  * The Y-matrix must have an even number of rows and columns, and the Cr
  * and Cb matrices are one half the size of the Y-matrix in both
  * horizontal and vertical dimensions.
+ *
+ * Samples are stored as unsigned bytes: read them with "& 0xff".
+ * Reconstructed values are saturated to 0..255 when stored.
+ *
+ * Each plane is surrounded by a border one macroblock wide (16 luma and
+ * 8 chroma samples at full resolution). Once a reference picture is
+ * complete, pad() replicates its edge samples into the border, so motion
+ * vectors pointing at or past the edges need no special handling.
  */
 
 public class Picture {
@@ -19,27 +27,91 @@ public class Picture {
     public static final int B_TYPE = 3;
     public static final int D_TYPE = 4;
 
-    private final int mLumRowSize;
-    private final int mColRowSize;
+    // Distance between rows, border included
+    final int mLumRowSize;
+    final int mColRowSize;
+
+    // Index of the top left sample, inside the border
+    final int mLumOrigin;
+    final int mColOrigin;
+
+    // Macroblock size in each plane (16 and 8 at full resolution), which
+    // is also the width of the border
+    private final int mLumSize;
+    private final int mColSize;
+
+    // Picture size in each plane, border excluded
+    private final int mLumWidth;
+    private final int mLumHeight;
+    private final int mColWidth;
+    private final int mColHeight;
 
-	public short[] mY;
-    public short[] mCb;
-    public short[] mCr;
+	public byte[] mY;
+    public byte[] mCb;
+    public byte[] mCr;
 
 	public int mTime;
 	public int mType;
 
+	// Set on the first picture sent to the player after a seek, and
+	// on it if B-pictures to be shown before it follow it
+	public boolean mFirstAfterSeek;
+	public boolean mBPicturesFollow;
+
+	// System stream time stamps (90 kHz), if the video was demultiplexed
+	public long mPts = -1;
+	public long mDts = -1;
+	public long mScr = -1;
+
+	// Owner pool and number of holders, see PicturePool
+	private final PicturePool mPool;
+	int mReferences;
+
 	Picture(int mbWidth, int mbHeight) {
-    	final int size = (mbWidth * mbHeight) << 8;
+		this(mbWidth, mbHeight, 0, null);
+	}
+
+	/*
+	 * A picture decoded at reduced resolution: each dimension is
+	 * divided by 2^scale
+	 */
+	Picture(int mbWidth, int mbHeight, int scale, PicturePool pool) {
+		mPool = pool;
+
+    	mLumSize = 16 >> scale;
+    	mColSize = 8 >> scale;
+
+    	mLumWidth  = mbWidth * mLumSize;
+    	mLumHeight = mbHeight * mLumSize;
+    	mColWidth  = mbWidth * mColSize;
+    	mColHeight = mbHeight * mColSize;
+
+    	mLumRowSize = mLumWidth + 2 * mLumSize;
+    	mColRowSize = mColWidth + 2 * mColSize;
 
-    	mLumRowSize = mbWidth << 4;
-    	mColRowSize = mbWidth << 3;
+    	mLumOrigin = mLumRowSize * mLumSize + mLumSize;
+    	mColOrigin = mColRowSize * mColSize + mColSize;
 
-    	mY  = new short[size];
-    	mCb = new short[size >>> 2];
-    	mCr = new short[size >>> 2];
+    	mY  = new byte[mLumRowSize * (mLumHeight + 2 * mLumSize)];
+    	mCb = new byte[mColRowSize * (mColHeight + 2 * mColSize)];
+    	mCr = new byte[mColRowSize * (mColHeight + 2 * mColSize)];
     }
 
+	/*
+	 * Pictures received from the decoder must be released once they are
+	 * no longer needed. retain() adds a holder, for instance to keep a
+	 * picture past the next one.
+	 */
+	public void retain() {
+		if (mPool != null)
+			mPool.retain(this);
+	}
+
+	public void release() {
+		if (mPool != null)
+			mPool.release(this);
+	}
+
 	/*
 	 * Motion compensation (MC) predicts the value of a block of
 	 * neighboring pels in a picture by relocating a block of
@@ -59,39 +131,111 @@ public class Picture {
 	 * values belonging to a given macroblock as an average of values
 	 * from the past and future pictures.
 	 */
-    private static Picture temp1 = new Picture(1, 1);
-    private static Picture temp2 = new Picture(1, 1);
-
 	public void interpolate(Picture src1, Picture src2, int mbRow, int mbCol, MotionVector mv1, MotionVector mv2) {
-		Picture.compensate(src1, mbRow, mbCol, temp1, 0, 0, mv1);
-		Picture.compensate(src2, mbRow, mbCol, temp2, 0, 0, mv2);
+		final int lum1 = src1.lumPosition(mbRow, mbCol, mv1);
+		final int lum2 = src2.lumPosition(mbRow, mbCol, mv2);
+
+		interpolate(src1.mY, lum1, mv1.mRightHalfLum, mv1.mDownHalfLum,
+		            src2.mY, lum2, mv2.mRightHalfLum, mv2.mDownHalfLum,
+		            mY, mLumOrigin + mLumRowSize * (mbRow * mLumSize) + mbCol * mLumSize, mLumRowSize, mLumSize);
+
+		final int col1 = src1.colPosition(mbRow, mbCol, mv1);
+		final int col2 = src2.colPosition(mbRow, mbCol, mv2);
+		final int dst  = mColOrigin + mColRowSize * (mbRow * mColSize) + mbCol * mColSize;
+
+		interpolate(src1.mCb, col1, mv1.mRightHalfCol, mv1.mDownHalfCol,
+		            src2.mCb, col2, mv2.mRightHalfCol, mv2.mDownHalfCol,
+		            mCb, dst, mColRowSize, mColSize);
+		interpolate(src1.mCr, col1, mv1.mRightHalfCol, mv1.mDownHalfCol,
+		            src2.mCr, col2, mv2.mRightHalfCol, mv2.mDownHalfCol,
+		            mCr, dst, mColRowSize, mColSize);
+	}
+
+	/*
+	 * Average of the predictions from both references, straight into
+	 * the destination. Every prediction is taken as the average of four
+	 * samples: the two offsets of a reference are zero along its
+	 * full-pel components, so the same loop serves all the half-pel
+	 * combinations. As the standard requires, each prediction is
+	 * rounded, and then their average. All planes involved have the
+	 * same row size.
+	 */
+	private static void interpolate(byte[] ref1, int src1, boolean right1, boolean down1,
+	                                byte[] ref2, int src2, boolean right2, boolean down2,
+	                                byte[] dst, int dst0, int rowSize, int size) {
+		final int x1 = right1? 1 : 0;
+		final int y1 = down1? rowSize : 0;
+		final int x2 = right2? 1 : 0;
+		final int y2 = down2? rowSize : 0;
+
+		for (int i = 0; i < size; ++i) {
+			for (int j = 0; j < size; ++j) {
+				final int a = src1 + j;
+				final int b = src2 + j;
+
+				final int p1 = (ref1[a] & 0xff) + (ref1[a + x1] & 0xff) + (ref1[a + y1] & 0xff) + (ref1[a + x1 + y1] & 0xff);
+				final int p2 = (ref2[b] & 0xff) + (ref2[b + x2] & 0xff) + (ref2[b + y2] & 0xff) + (ref2[b + x2 + y2] & 0xff);
+
+				dst[dst0 + j] = (byte)((((p1 + 2) >> 2) + ((p2 + 2) >> 2) + 1) >> 1);
+			}
 
-		doInterpolation(temp1, temp2, mbRow, mbCol);
+			src1 += rowSize;
+			src2 += rowSize;
+			dst0 += rowSize;
+		}
+	}
+
+	/*
+	 * Index of the sample a motion vector points at from the given
+	 * macroblock. Vectors of a valid stream stay within the border; past
+	 * it, all samples replicate the edge anyway, so corrupt ones are
+	 * clamped to it.
+	 */
+	private int lumPosition(int mbRow, int mbCol, MotionVector mv) {
+		int x = mbCol * mLumSize + mv.mRightLum;
+		int y = mbRow * mLumSize + mv.mDownLum;
+
+		x = x < -mLumSize? -mLumSize : (x >= mLumWidth? mLumWidth - 1 : x);
+		y = y < -mLumSize? -mLumSize : (y >= mLumHeight? mLumHeight - 1 : y);
+
+		return mLumOrigin + mLumRowSize * y + x;
+	}
+
+	private int colPosition(int mbRow, int mbCol, MotionVector mv) {
+		int x = mbCol * mColSize + mv.mRightCol;
+		int y = mbRow * mColSize + mv.mDownCol;
+
+		x = x < -mColSize? -mColSize : (x >= mColWidth? mColWidth - 1 : x);
+		y = y < -mColSize? -mColSize : (y >= mColHeight? mColHeight - 1 : y);
+
+		return mColOrigin + mColRowSize * y + x;
 	}
 
 	private static void compensate(Picture src, int srcRow, int srcCol, Picture dst, int dstRow, int dstCol, MotionVector mv) {
-		int x = (srcCol << 4) + mv.mRightLum;
-		int y = (srcRow << 4) + mv.mDownLum;
+		final int lumSize = src.mLumSize;
+		final int colSize = src.mColSize;
+
+		final int lum = src.lumPosition(srcRow, srcCol, mv);
 
-		int dst0 = dst.mLumRowSize * (dstRow << 4) + (dstCol << 4);
+		int dst0 = dst.mLumOrigin + dst.mLumRowSize * (dstRow * lumSize) + dstCol * lumSize;
 
 		if (!mv.mRightHalfLum && !mv.mDownHalfLum) {
-			int src0 = src.mLumRowSize * y + x;
+			int src0 = lum;
 
-			for (int i = 0; i < 16; ++i) {
-				System.arraycopy(src.mY, src0, dst.mY, dst0, 16);
+			for (int i = 0; i < lumSize; ++i) {
+				System.arraycopy(src.mY, src0, dst.mY, dst0, lumSize);
 
 				src0 += src.mLumRowSize;
 				dst0 += dst.mLumRowSize;
 			}
 		}
 		else if (!mv.mRightHalfLum && mv.mDownHalfLum) {
-			int src0 = src.mLumRowSize * y + x;
-			int src1 = src.mLumRowSize * (y + 1) + x;
+			int src0 = lum;
+			int src1 = lum + src.mLumRowSize;
 
-			for (int i = 0; i < 16; ++i) {
-				for (int j = 0; j < 16; ++j)
-					dst.mY[dst0 + j] = (short)((src.mY[src0 + j] + src.mY[src1 + j]) >> 1);
+			for (int i = 0; i < lumSize; ++i) {
+				for (int j = 0; j < lumSize; ++j)
+					dst.mY[dst0 + j] = (byte)(((src.mY[src0 + j] & 0xff) + (src.mY[src1 + j] & 0xff)) >> 1);
 
 				src0 += src.mLumRowSize;
 				src1 += src.mLumRowSize;
@@ -99,12 +243,12 @@ public class Picture {
 			}
 		}
 		else if (mv.mRightHalfLum && !mv.mDownHalfLum) {
-			int src0 = src.mLumRowSize * y + x;
-			int src1 = src.mLumRowSize * y + x + 1;
+			int src0 = lum;
+			int src1 = lum + 1;
 
-			for (int i = 0; i < 16; ++i) {
-				for (int j = 0; j < 16; ++j)
-					dst.mY[dst0 + j] = (short)((src.mY[src0 + j] + src.mY[src1 + j]) >> 1);
+			for (int i = 0; i < lumSize; ++i) {
+				for (int j = 0; j < lumSize; ++j)
+					dst.mY[dst0 + j] = (byte)(((src.mY[src0 + j] & 0xff) + (src.mY[src1 + j] & 0xff)) >> 1);
 
 				src0 += src.mLumRowSize;
 				src1 += src.mLumRowSize;
@@ -112,14 +256,14 @@ public class Picture {
 			}
 		}
 		else if (mv.mRightHalfLum && mv.mDownHalfLum) {
-			int src0 = src.mLumRowSize * y + x;
-			int src1 = src.mLumRowSize * (y + 1) + x;
-			int src2 = src.mLumRowSize * y + x + 1;
-			int src3 = src.mLumRowSize * (y + 1) + x + 1;
+			int src0 = lum;
+			int src1 = lum + src.mLumRowSize;
+			int src2 = lum + 1;
+			int src3 = lum + src.mLumRowSize + 1;
 
-			for (int i = 0; i < 16; ++i) {
-				for (int j = 0; j < 16; ++j)
-					dst.mY[dst0 + j] = (short)((src.mY[src0 + j] + src.mY[src1 + j] + src.mY[src2 + j] + src.mY[src3 + j]) >> 2);
+			for (int i = 0; i < lumSize; ++i) {
+				for (int j = 0; j < lumSize; ++j)
+					dst.mY[dst0 + j] = (byte)(((src.mY[src0 + j] & 0xff) + (src.mY[src1 + j] & 0xff) + (src.mY[src2 + j] & 0xff) + (src.mY[src3 + j] & 0xff)) >> 2);
 
 				src0 += src.mLumRowSize;
 				src1 += src.mLumRowSize;
@@ -129,30 +273,29 @@ public class Picture {
 			}
 		}
 
-		x = (srcCol << 3) + mv.mRightCol;
-		y = (srcRow << 3) + mv.mDownCol;
+		final int col = src.colPosition(srcRow, srcCol, mv);
 
-		dst0 = dst.mColRowSize * (dstRow << 3) + (dstCol << 3);
+		dst0 = dst.mColOrigin + dst.mColRowSize * (dstRow * colSize) + dstCol * colSize;
 
 		if (!mv.mRightHalfCol && !mv.mDownHalfCol) {
-			int src0 = src.mColRowSize * y + x;
+			int src0 = col;
 
-			for (int i = 0; i < 8; ++i)	{
-				System.arraycopy(src.mCb, src0, dst.mCb, dst0, 8);
-				System.arraycopy(src.mCr, src0, dst.mCr, dst0, 8);
+			for (int i = 0; i < colSize; ++i)	{
+				System.arraycopy(src.mCb, src0, dst.mCb, dst0, colSize);
+				System.arraycopy(src.mCr, src0, dst.mCr, dst0, colSize);
 
 				src0 += src.mColRowSize;
 				dst0 += dst.mColRowSize;
 			}
 		}
 		else if (!mv.mRightHalfCol && mv.mDownHalfCol) {
-			int src0 = src.mColRowSize * y + x;
-			int src1 = src.mColRowSize * (y + 1) + x;
+			int src0 = col;
+			int src1 = col + src.mColRowSize;
 
-			for (int i = 0; i < 8; ++i)	{
-				for (int j = 0; j < 8; ++j) {
-					dst.mCb[dst0 + j] = (short)((src.mCb[src0 + j] + src.mCb[src1 + j]) >> 1);
-					dst.mCr[dst0 + j] = (short)((src.mCr[src0 + j] + src.mCr[src1 + j]) >> 1);
+			for (int i = 0; i < colSize; ++i)	{
+				for (int j = 0; j < colSize; ++j) {
+					dst.mCb[dst0 + j] = (byte)(((src.mCb[src0 + j] & 0xff) + (src.mCb[src1 + j] & 0xff)) >> 1);
+					dst.mCr[dst0 + j] = (byte)(((src.mCr[src0 + j] & 0xff) + (src.mCr[src1 + j] & 0xff)) >> 1);
 				}
 
 				src0 += src.mColRowSize;
@@ -161,13 +304,13 @@ public class Picture {
 			}
 		}
 		else if (mv.mRightHalfCol && !mv.mDownHalfCol) {
-			int src0 = src.mColRowSize * y + x;
-			int src1 = src.mColRowSize * y + x + 1;
+			int src0 = col;
+			int src1 = col + 1;
 
-			for (int i = 0; i < 8; ++i) {
-				for (int j = 0; j < 8; ++j)	{
-					dst.mCb[dst0 + j] = (short)((src.mCb[src0 + j] + src.mCb[src1 + j]) >> 1);
-					dst.mCr[dst0 + j] = (short)((src.mCr[src0 + j] + src.mCr[src1 + j]) >> 1);
+			for (int i = 0; i < colSize; ++i) {
+				for (int j = 0; j < colSize; ++j)	{
+					dst.mCb[dst0 + j] = (byte)(((src.mCb[src0 + j] & 0xff) + (src.mCb[src1 + j] & 0xff)) >> 1);
+					dst.mCr[dst0 + j] = (byte)(((src.mCr[src0 + j] & 0xff) + (src.mCr[src1 + j] & 0xff)) >> 1);
 				}
 
 				src0 += src.mColRowSize;
@@ -176,15 +319,15 @@ public class Picture {
 			}
 		}
 		else if (mv.mRightHalfCol && mv.mDownHalfCol) {
-			int src0 = src.mColRowSize * y + x;
-			int src1 = src.mColRowSize * (y + 1) + x;
-			int src2 = src.mColRowSize * y + x + 1;
-			int src3 = src.mColRowSize * (y + 1) + x + 1;
-
-			for (int i = 0; i < 8; ++i) {
-				for (int j = 0; j < 8; ++j)	{
-					dst.mCb[dst0 + j] = (short)((src.mCb[src0 + j] + src.mCb[src1 + j] + src.mCb[src2 + j] + src.mCb[src3 + j]) >> 2);
-					dst.mCr[dst0 + j] = (short)((src.mCr[src0 + j] + src.mCr[src1 + j] + src.mCr[src2 + j] + src.mCr[src3 + j]) >> 2);
+			int src0 = col;
+			int src1 = col + src.mColRowSize;
+			int src2 = col + 1;
+			int src3 = col + src.mColRowSize + 1;
+
+			for (int i = 0; i < colSize; ++i) {
+				for (int j = 0; j < colSize; ++j)	{
+					dst.mCb[dst0 + j] = (byte)(((src.mCb[src0 + j] & 0xff) + (src.mCb[src1 + j] & 0xff) + (src.mCb[src2 + j] & 0xff) + (src.mCb[src3 + j] & 0xff)) >> 2);
+					dst.mCr[dst0 + j] = (byte)(((src.mCr[src0 + j] & 0xff) + (src.mCr[src1 + j] & 0xff) + (src.mCr[src2 + j] & 0xff) + (src.mCr[src3 + j] & 0xff)) >> 2);
 				}
 
 				src0 += src.mColRowSize;
@@ -202,51 +345,32 @@ public class Picture {
 	 * vector components equal zero.
 	 */
 	public void copy(Picture src, int mbRow, int mbCol) {
-		int dst = mLumRowSize * (mbRow << 4) + (mbCol << 4);
-
-		for (int i = 0; i < 16; ++i) {
-			System.arraycopy(src.mY, dst, mY, dst, 16);
-
-			dst += mLumRowSize;
-		}
-
-		dst = mColRowSize * (mbRow << 3) + (mbCol << 3);
-
-		for (int i = 0; i < 8; ++i) {
-			System.arraycopy(src.mCb, dst, mCb, dst, 8);
-			System.arraycopy(src.mCr, dst, mCr, dst, 8);
-
-			dst += mColRowSize;
-		}
+		copy(src, mbRow, mbCol, 1);
 	}
 
-	private void doInterpolation(Picture src1, Picture src2, int mbRow, int mbCol)
-	{
-		int src = 0;
-		int dst = mLumRowSize * (mbRow << 4) + (mbCol << 4);
+	/*
+	 * Block copy of "count" consecutive macroblocks of a row, one
+	 * arraycopy per line of each plane. Runs of skipped macroblocks
+	 * in P-pictures are copied this way.
+	 */
+	public void copy(Picture src, int mbRow, int mbCol, int count) {
+		final int lumLength = count * mLumSize;
+		final int colLength = count * mColSize;
 
-		for (int i = 0; i < 16; ++i) {
-			for (int j = 0; j < 16; ++j) {
-				mY[dst + j] = (short)((src1.mY[src + j] + src2.mY[src + j]) >> 1);
-			}
+		int dst = mLumOrigin + mLumRowSize * (mbRow * mLumSize) + mbCol * mLumSize;
+
+		for (int i = 0; i < mLumSize; ++i) {
+			System.arraycopy(src.mY, dst, mY, dst, lumLength);
 
-			src += src1.mLumRowSize;
 			dst += mLumRowSize;
 		}
 
-		src = 0;
-		dst = mColRowSize * (mbRow << 3) + (mbCol << 3);
+		dst = mColOrigin + mColRowSize * (mbRow * mColSize) + mbCol * mColSize;
 
-		for (int i = 0; i < 8; ++i) {
-			for (int j = 0; j < 8; ++j) {
-				mCb[dst + j] = (short)((src1.mCb[src + j] + src2.mCb[src + j]) >> 1);
-			}
+		for (int i = 0; i < mColSize; ++i) {
+			System.arraycopy(src.mCb, dst, mCb, dst, colLength);
+			System.arraycopy(src.mCr, dst, mCr, dst, colLength);
 
-			for (int j = 0; j < 8; ++j) {
-				mCr[dst + j] = (short)((src1.mCr[src + j] + src2.mCr[src + j]) >> 1);
-			}
-
-			src += src1.mColRowSize;
 			dst += mColRowSize;
 		}
 	}
@@ -262,54 +386,107 @@ public class Picture {
 	 *
 	 */
 	void setLumBlock(int[] dct, int mbRow, int mbCol, int blockNumber) {
-		int dst = mLumRowSize * ((mbRow << 4) + ((blockNumber & 0x2) << 2)) +
-		  (mbCol << 4) + ((blockNumber & 0x1) << 3);
+		final int size = mColSize;	// Block size
+
+		int dst = mLumOrigin + mLumRowSize * (mbRow * mLumSize + ((blockNumber & 0x2) >> 1) * size) +
+		  mbCol * mLumSize + (blockNumber & 0x1) * size;
 
-		for (int i = 0; i < 8; ++i)	{
-			for (int j = 0; j < 8; ++j)
-				mY[dst + j] = (short)dct[i * 8 + j];
+		for (int i = 0; i < size; ++i)	{
+			for (int j = 0; j < size; ++j)
+				mY[dst + j] = clamp(dct[i * size + j]);
 
 			dst += mLumRowSize;
 		}
 	}
 
 	void setColBlock(int[] dct, int mbRow, int mbCol, int blockNumber) {
-		int dst = mColRowSize * (mbRow << 3) + (mbCol << 3);
+		final int size = mColSize;
 
-		for (int i = 0; i < 8; ++i)	{
-			for (int j = 0; j < 8; ++j)
+		int dst = mColOrigin + mColRowSize * (mbRow * size) + mbCol * size;
+
+		for (int i = 0; i < size; ++i)	{
+			for (int j = 0; j < size; ++j)
 				if (blockNumber == 4)
-					mCb[dst + j] = (short)dct[i * 8 + j];
+					mCb[dst + j] = clamp(dct[i * size + j]);
 				else
-					mCr[dst + j] = (short)dct[i * 8 + j];
+					mCr[dst + j] = clamp(dct[i * size + j]);
 
 			dst += mColRowSize;
 		}
 	}
 
 	void correctLumBlock(int[] dct, int mbRow, int mbCol, int blockNumber) {
-		int dst = mLumRowSize * ((mbRow << 4) + ((blockNumber & 0x2) << 2)) +
-		  (mbCol << 4) + ((blockNumber & 0x1) << 3);
+		final int size = mColSize;
+
+		int dst = mLumOrigin + mLumRowSize * (mbRow * mLumSize + ((blockNumber & 0x2) >> 1) * size) +
+		  mbCol * mLumSize + (blockNumber & 0x1) * size;
 
-		for (int i = 0; i < 8; ++i)	{
-			for (int j = 0; j < 8; ++j)
-				mY[dst + j] += dct[i * 8 + j];
+		for (int i = 0; i < size; ++i)	{
+			for (int j = 0; j < size; ++j)
+				mY[dst + j] = clamp((mY[dst + j] & 0xff) + dct[i * size + j]);
 
 			dst += mLumRowSize;
 		}
 	}
 
 	void correctColBlock(int[] dct, int mbRow, int mbCol, int blockNumber) {
-		int dst = mColRowSize * (mbRow << 3) + (mbCol << 3);
+		final int size = mColSize;
 
-		for (int i = 0; i < 8; ++i)	{
-			for (int j = 0; j < 8; ++j)
+		int dst = mColOrigin + mColRowSize * (mbRow * size) + mbCol * size;
+
+		for (int i = 0; i < size; ++i)	{
+			for (int j = 0; j < size; ++j)
 				if (blockNumber == 4)
-					mCb[dst + j] += dct[i * 8 + j];
+					mCb[dst + j] = clamp((mCb[dst + j] & 0xff) + dct[i * size + j]);
 				else
-					mCr[dst + j] += dct[i * 8 + j];
+					mCr[dst + j] = clamp((mCr[dst + j] & 0xff) + dct[i * size + j]);
 
 			dst += mColRowSize;
 		}
 	}
+
+	/*
+	 * Replicate the edge samples into the border. Called once on
+	 * each reference picture after it has been decoded.
+	 */
+	void pad() {
+		pad(mY,  mLumOrigin, mLumRowSize, mLumWidth, mLumHeight, mLumSize);
+		pad(mCb, mColOrigin, mColRowSize, mColWidth, mColHeight, mColSize);
+		pad(mCr, mColOrigin, mColRowSize, mColWidth, mColHeight, mColSize);
+	}
+
+	private static void pad(byte[] plane, int origin, int rowSize, int width, int height, int border) {
+		int row = origin;
+
+		// Left and right
+		for (int i = 0; i < height; ++i) {
+			final byte left  = plane[row];
+			final byte right = plane[row + width - 1];
+
+			for (int j = 1; j <= border; ++j) {
+				plane[row - j] = left;
+				plane[row + width - 1 + j] = right;
+			}
+
+			row += rowSize;
+		}
+
+		// Top and bottom, corners included
+		final int top    = origin - border;
+		final int bottom = top + (height - 1) * rowSize;
+
+		for (int i = 1; i <= border; ++i) {
+			System.arraycopy(plane, top, plane, top - i * rowSize, rowSize);
+			System.arraycopy(plane, bottom, plane, bottom + i * rowSize, rowSize);
+		}
+	}
+
+	/*
+	 * Saturate a reconstructed sample into 0..255. Values out of range
+	 * have some bit above the low eight set; ~value >> 31 is then 0 for
+	 * negative values and -1 (0xff as a byte) for those above 255.
+	 */
+	private static byte clamp(int value) {
+		return (byte)((value & ~0xff) == 0? value : ~value >> 31);
+	}
 }
@@ -0,0 +1,66 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * A fixed set of pictures shared by the decoder and the consumers of
+ * its output. Each picture carries a reference count: the decoder holds
+ * one while decoding it and while it is a reference picture, and every
+ * consumer it is sent to holds another until it calls release(). A
+ * picture is only reused once all of them are released, so no picture
+ * is overwritten while it is still being displayed.
+ *
+ * acquire() waits while every picture is in use. The decoder holds up
+ * to three pictures (two references and the one being decoded); any
+ * picture a consumer keeps beyond that needs one more in the pool, or
+ * decoding stalls. Pictures beyond these let the decoder run ahead.
+ */
+public class PicturePool {
+    private final Picture[] mFree;
+    private int mFreeCount;
+
+    PicturePool(int size, int mbWidth, int mbHeight, int scale) {
+        mFree = new Picture[size];
+
+        for (int i = 0; i < size; ++i)
+            mFree[i] = new Picture(mbWidth, mbHeight, scale, this);
+
+        mFreeCount = size;
+    }
+
+    /*
+     * Returns a free picture, already referenced once by the caller
+     */
+    public synchronized Picture acquire() {
+        while (mFreeCount == 0) {
+            try {
+                wait();
+            }
+            catch (InterruptedException ignore) {}
+        }
+
+        Picture picture = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+
+        picture.mReferences = 1;
+
+        return picture;
+    }
+
+    synchronized void retain(Picture picture) {
+        ++picture.mReferences;
+    }
+
+    synchronized void release(Picture picture) {
+        if (picture.mReferences <= 0)
+            throw new IllegalStateException("Picture already released");
+
+        if (--picture.mReferences == 0) {
+            mFree[mFreeCount++] = picture;
+            notify();
+        }
+    }
+}
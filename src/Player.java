@@ -71,8 +71,11 @@ class TestCanvas extends Canvas {
 class VideoDecoder extends Thread {
     private InputBitStream mInput = null;
     private Decoder mDecoder	  = null;
+    private Queue mQueue;
 
     public VideoDecoder(Queue queue, VideoRenderer renderer) {
+        mQueue = queue;
+
         try {
             mInput = new InputBitStream("/video.mpg");
             mDecoder = new Decoder(queue, mInput, renderer);
@@ -89,16 +92,24 @@ class VideoDecoder extends Thread {
         {}
         finally {
         	mInput.close();
+        	mQueue.put(VideoRenderer.END_OF_STREAM);
         }
     }
 }
 
 class VideoRenderer extends Canvas implements Runnable {
+	// Queued after the last picture
+	static final Object END_OF_STREAM = new Object();
+
 	private Queue mQueue;
 
 	private int mWidth;
     private int mHeight;
 
+    // Video size, if it has to be scaled down to fit the screen
+    private int mVideoWidth;
+    private int mVideoHeight;
+
     private int mX = 0;
     private int mY = 0;
 
@@ -107,15 +118,28 @@ class VideoRenderer extends Canvas implements Runnable {
     }
 
     void setSize(int width, int height) {
-    	mWidth  = width;
-    	mHeight = height;
+    	mWidth  = mVideoWidth  = width;
+    	mHeight = mVideoHeight = height;
+
+    	// Too large: keep the aspect ratio and fit the screen
+    	if (mWidth > getWidth()) {
+    		mHeight = mHeight * getWidth() / mWidth;
+    		mWidth  = getWidth();
+    	}
+
+    	if (mHeight > getHeight()) {
+    		mWidth  = mWidth * getHeight() / mHeight;
+    		mHeight = getHeight();
+    	}
 
     	mX = (getWidth() - mWidth) / 2;
     	mY = (getHeight() - mHeight) / 2;
     }
 
     protected void paint(Graphics g) {
-        if (mBitmap == null) {
+        Bitmap bitmap = mBitmap;
+
+        if (bitmap == null) {
         	g.setColor(0xffffff);
         	g.fillRect(0, 0, getWidth(), getHeight());
         }
@@ -131,7 +155,7 @@ class VideoRenderer extends Canvas implements Runnable {
         		g.drawString("fps: " + fps, 0, 0, Graphics.TOP | Graphics.LEFT);
         	}
 
-            g.drawRGB(mBitmap.mRgb, 0, mWidth, mX, mY, mWidth, mHeight, false);
+            g.drawRGB(bitmap.mRgb, 0, mWidth, mX, mY, mWidth, mHeight, false);
         }
     }
 
@@ -143,38 +167,49 @@ class VideoRenderer extends Canvas implements Runnable {
 
     public void run() {
         mBitmap = null;
-        Picture stored = null;
+        DisplayOrder order = new DisplayOrder();
 
         mStartTime = System.currentTimeMillis();
 
         while (true) {
-            Picture current = (Picture) mQueue.get();
-
-            if (mBitmap == null)
-                mBitmap = new Bitmap(mWidth, mHeight);
-
-            /*
-             * Display frames in order
-             */
-    		if (current.mType == Picture.I_TYPE || current.mType == Picture.P_TYPE) {
-    			if (mFrameCount == 0) {
-    	    		mBitmap.transform(current);
-    			}
-    			else {
-    				if (stored != null) {
-    					mBitmap.transform(stored);
-    				}
-    				stored = current;
-    			}
-    		}
-    		else if(current.mType == Picture.B_TYPE) {
-    			mBitmap.transform(current);
-    		}
+            Object next = mQueue.get();
+
+            // The last reference picture is shown at the end of the stream
+            Picture shown = (next == END_OF_STREAM)? order.flush() : order.put((Picture) next);
+
+            // Pictures go back to the decoder once converted
+            if (shown != null) {
+                Bitmap bitmap = mBitmap;
+
+                if (bitmap == null) {
+                    bitmap = new Bitmap(mWidth, mHeight);
+
+                    // MPEG-1 samples are coded in studio range
+                    bitmap.setStudioRange(true);
+
+                    // Scaled as it is converted
+                    if (mWidth != mVideoWidth || mHeight != mVideoHeight)
+                    	bitmap.setScaling(mVideoWidth, mVideoHeight, Bitmap.FILTER_BILINEAR);
+                }
+
+                bitmap.transform(shown);
+                shown.release();
+
+                // paint() draws mRgb, which the first transform allocates
+                mBitmap = bitmap;
+            }
 
     		++mFrameCount;
             mEndTime = System.currentTimeMillis();
 
             repaint();
+
+            if (next == END_OF_STREAM) {
+                if (mBitmap != null)
+                    mBitmap.close();
+
+                break;
+            }
         }
     }
 }
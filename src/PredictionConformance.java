@@ -0,0 +1,176 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.util.Random;
+
+/*
+ * Bidirectional prediction test. Interpolated macroblocks are compared
+ * with a reference computed sample by sample as ISO/IEC 11172-2
+ * describes it: each reference picture gives a prediction whose
+ * half-pel averages are rounded, "//" in the standard, and both
+ * predictions are then averaged with rounding. All sixteen
+ * combinations of half-pel offsets are tried, with random samples,
+ * macroblocks and full-pel vectors, for the luminance and both
+ * chrominance planes.
+ */
+public class PredictionConformance {
+    public static final int MACROBLOCKS = 2000;
+
+    private static final int MB_WIDTH  = 5;
+    private static final int MB_HEIGHT = 4;
+
+    private final Random mRandom = new Random(1180);
+
+    private StringBuffer mReport = new StringBuffer();
+
+    private Picture createReference() {
+        Picture picture = new Picture(MB_WIDTH, MB_HEIGHT);
+
+        fill(picture.mY);
+        fill(picture.mCb);
+        fill(picture.mCr);
+
+        return picture;
+    }
+
+    private void fill(byte[] plane) {
+        for (int i = 0; i < plane.length; ++i)
+            plane[i] = (byte)mRandom.nextInt();
+    }
+
+    /*
+     * Random vector whose block, and the sample past it, stays within
+     * the picture. "halves" selects the half-pel offsets.
+     */
+    private MotionVector createVector(int mbRow, int mbCol, int halves) {
+        MotionVector mv = new MotionVector();
+
+        mv.mRightLum = offset(mbCol * 16, MB_WIDTH * 16, 16);
+        mv.mDownLum  = offset(mbRow * 16, MB_HEIGHT * 16, 16);
+        mv.mRightHalfLum = (halves & 1) != 0;
+        mv.mDownHalfLum  = (halves & 2) != 0;
+
+        mv.mRightCol = offset(mbCol * 8, MB_WIDTH * 8, 8);
+        mv.mDownCol  = offset(mbRow * 8, MB_HEIGHT * 8, 8);
+        mv.mRightHalfCol = (halves & 1) != 0;
+        mv.mDownHalfCol  = (halves & 2) != 0;
+
+        return mv;
+    }
+
+    private int offset(int position, int extent, int size) {
+        return mRandom.nextInt(extent - size) - position;
+    }
+
+    /*
+     * Prediction from one reference at (x, y) of a plane
+     */
+    private static int predict(byte[] plane, int origin, int rowSize, int x, int y, boolean right, boolean down) {
+        final int i = origin + y * rowSize + x;
+
+        final int a = plane[i] & 0xff;
+        final int b = plane[i + 1] & 0xff;
+        final int c = plane[i + rowSize] & 0xff;
+        final int d = plane[i + rowSize + 1] & 0xff;
+
+        if (right && down)
+            return (a + b + c + d + 2) / 4;
+        else if (right)
+            return (a + b + 1) / 2;
+        else if (down)
+            return (a + c + 1) / 2;
+        else
+            return a;
+    }
+
+    /*
+     * Count the samples of a macroblock in one plane that differ from
+     * the reference
+     */
+    private static int compare(Picture result, byte[] plane, byte[] plane1, byte[] plane2, boolean luma,
+                               int mbRow, int mbCol, MotionVector mv1, MotionVector mv2) {
+        final int size    = luma? 16 : 8;
+        final int origin  = luma? result.mLumOrigin : result.mColOrigin;
+        final int rowSize = luma? result.mLumRowSize : result.mColRowSize;
+
+        int errors = 0;
+
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                final int x = mbCol * size + j;
+                final int y = mbRow * size + i;
+
+                final int p1 = luma? predict(plane1, origin, rowSize, x + mv1.mRightLum, y + mv1.mDownLum, mv1.mRightHalfLum, mv1.mDownHalfLum)
+                                   : predict(plane1, origin, rowSize, x + mv1.mRightCol, y + mv1.mDownCol, mv1.mRightHalfCol, mv1.mDownHalfCol);
+                final int p2 = luma? predict(plane2, origin, rowSize, x + mv2.mRightLum, y + mv2.mDownLum, mv2.mRightHalfLum, mv2.mDownHalfLum)
+                                   : predict(plane2, origin, rowSize, x + mv2.mRightCol, y + mv2.mDownCol, mv2.mRightHalfCol, mv2.mDownHalfCol);
+
+                if ((plane[origin + y * rowSize + x] & 0xff) != (p1 + p2 + 1) / 2)
+                    ++errors;
+            }
+        }
+
+        return errors;
+    }
+
+    /*
+     * Returns true if every interpolated sample matches the reference;
+     * details are available from getReport().
+     */
+    public boolean test() {
+        mReport.setLength(0);
+
+        Picture past   = createReference();
+        Picture future = createReference();
+        Picture result = new Picture(MB_WIDTH, MB_HEIGHT);
+
+        int[] errors = new int[16];
+        boolean passed = true;
+
+        for (int n = 0; n < MACROBLOCKS; ++n) {
+            final int halves = n & 15;
+            final int mbRow = mRandom.nextInt(MB_HEIGHT);
+            final int mbCol = mRandom.nextInt(MB_WIDTH);
+
+            MotionVector mv1 = createVector(mbRow, mbCol, halves & 3);
+            MotionVector mv2 = createVector(mbRow, mbCol, halves >> 2);
+
+            result.interpolate(past, future, mbRow, mbCol, mv1, mv2);
+
+            errors[halves] += compare(result, result.mY, past.mY, future.mY, true, mbRow, mbCol, mv1, mv2);
+            errors[halves] += compare(result, result.mCb, past.mCb, future.mCb, false, mbRow, mbCol, mv1, mv2);
+            errors[halves] += compare(result, result.mCr, past.mCr, future.mCr, false, mbRow, mbCol, mv1, mv2);
+        }
+
+        for (int halves = 0; halves < 16; ++halves) {
+            if (errors[halves] > 0) {
+                mReport.append("FAIL half-pel right/down ").append(halves & 1).append('/').append((halves >> 1) & 1)
+                       .append(" and ").append((halves >> 2) & 1).append('/').append(halves >> 3)
+                       .append(": ").append(errors[halves]).append(" samples differ\n");
+                passed = false;
+            }
+        }
+
+        mReport.append(passed? "PASSED\n" : "FAILED\n");
+
+        return passed;
+    }
+
+    public String getReport() {
+        return mReport.toString();
+    }
+
+    public static void main(String[] args) {
+        PredictionConformance conformance = new PredictionConformance();
+        boolean passed = conformance.test();
+
+        System.out.print(conformance.getReport());
+
+        if (!passed)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * Reads a stream ahead of the decoder on a separate thread. A ring of
+ * buffers is shared between both threads: the reader fills free
+ * buffers while the decoder consumes the one handed out last, which is
+ * given back on the next call to read(). With two buffers the stream
+ * is double buffered, with three or more the reader can absorb longer
+ * I/O stalls.
+ *
+ * The reader thread starts with the first read(). CLDC has no daemon
+ * threads, so once reading has started close() must be called, or the
+ * reader stays blocked and keeps the application alive.
+ */
+public class PrefetchSource implements ByteSource, Runnable {
+    public static final int BUFFER_COUNT = 3;
+
+    private InputStream mInput;
+
+    private byte[][] mBuffers;
+    private int[] mLengths;
+
+    private int mReadIndex  = 0;    // Next buffer to hand out
+    private int mWriteIndex = 0;    // Next buffer to fill
+    private int mReady      = 0;    // Buffers filled but not handed out
+    private int mFree;              // Buffers available to the reader
+    private int mCurrent    = -1;   // Buffer held by the decoder
+
+    private Thread mReader = null;
+
+    private boolean mEndOfStream = false;
+    private boolean mClosed      = false;
+    private IOException mError   = null;
+
+    public PrefetchSource(InputStream input) {
+        this(input, BUFFER_COUNT, StreamSource.BUFFER_SIZE);
+    }
+
+    public PrefetchSource(InputStream input, int bufferCount, int bufferSize) {
+        if (bufferCount < 2)
+            throw new IllegalArgumentException("At least two buffers are needed");
+
+        mInput   = input;
+        mBuffers = new byte[bufferCount][bufferSize];
+        mLengths = new int[bufferCount];
+        mFree    = bufferCount;
+    }
+
+    /*
+     * Reader thread
+     */
+    public void run() {
+        try {
+            while (true) {
+                int index;
+
+                synchronized (this) {
+                    while (mFree == 0 && !mClosed)
+                        wait();
+
+                    if (mClosed)
+                        return;
+
+                    index = mWriteIndex;
+                }
+
+                int length = fill(mBuffers[index]);
+
+                synchronized (this) {
+                    mLengths[index] = length;
+                    mWriteIndex = (mWriteIndex + 1) % mBuffers.length;
+                    --mFree;
+                    ++mReady;
+
+                    notifyAll();
+                }
+
+                if (length < 0)
+                    return;
+            }
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                mError = e;
+                notifyAll();
+            }
+        }
+        catch (InterruptedException ignore) {}
+    }
+
+    /*
+     * Read until the buffer is full or the stream ends. Returns -1
+     * if nothing was left to read.
+     */
+    private int fill(byte[] buffer) throws IOException {
+        int length = 0;
+
+        while (length < buffer.length) {
+            int count = mInput.read(buffer, length, buffer.length - length);
+
+            if (count < 0)
+                break;
+
+            length += count;
+        }
+
+        return length == 0? -1 : length;
+    }
+
+    public synchronized int read() throws IOException {
+        if (mEndOfStream)
+            return -1;
+
+        if (mClosed)
+            throw new IOException("Source closed");
+
+        // Started here, once the object is complete
+        if (mReader == null) {
+            mReader = new Thread(this);
+            mReader.start();
+        }
+
+        // The decoder is done with the previous buffer
+        if (mCurrent != -1) {
+            mCurrent = -1;
+            ++mFree;
+
+            notifyAll();
+        }
+
+        while (mReady == 0 && mError == null) {
+            try {
+                wait();
+            }
+            catch (InterruptedException ignore) {}
+        }
+
+        if (mReady == 0)
+            throw mError;
+
+        mCurrent = mReadIndex;
+        mReadIndex = (mReadIndex + 1) % mBuffers.length;
+        --mReady;
+
+        if (mLengths[mCurrent] < 0)
+            mEndOfStream = true;
+
+        return mLengths[mCurrent];
+    }
+
+    public synchronized byte[] getBuffer() {
+        return mBuffers[mCurrent];
+    }
+
+    public int getOffset() {
+        return 0;
+    }
+
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            notifyAll();
+        }
+
+        try {
+            mInput.close();
+        }
+        catch (IOException ignore) {}
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * IDCT for reduced resolution decoding. Only the N by N lowest
+ * frequency coefficients (N = 4, 2 or 1) are used, and the N-point
+ * inverse transform of each dimension directly gives the block scaled
+ * down by 8 / N:
+ *
+ *   f(x) = sum C(u) / 2 * F(u) * cos((2x + 1) * u * pi / 2N),  u < N
+ *
+ * which keeps the same gain as the 8-point transform. The N by N
+ * result is stored row by row at the start of the array.
+ */
+public class ReducedIdct implements Idct {
+    /*
+     * Basis scaled by 2^10: C(u) / 2 * cos((2x + 1) * u * pi / 2N),
+     * indexed [x * N + u]
+     */
+    private static final int[] Basis2 = {
+        362,  362,
+        362, -362
+    };
+
+    private static final int[] Basis4 = {
+        362,  473,  362,  196,
+        362,  196, -362, -473,
+        362, -196, -362,  473,
+        362, -473,  362, -196
+    };
+
+    private final int mSize;
+    private final int[] mBasis;
+
+    private final int[] mWork = new int[HALF_DCT_SIZE * HALF_DCT_SIZE];
+
+    /*
+     * scale is 1, 2 or 3 for 1/2, 1/4 and 1/8 of the full size
+     */
+    public ReducedIdct(int scale) {
+        if (scale < 1 || scale > 3)
+            throw new IllegalArgumentException("Invalid scale");
+
+        mSize  = DCT_SIZE >> scale;
+        mBasis = (mSize == 4)? Basis4 : (mSize == 2)? Basis2 : null;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public void calculate(int[] dct_coeff) {
+        calculate(dct_coeff, DCT_DIM - 1, 0xff);
+    }
+
+    public void calculate(int[] dct_coeff, int last, int rows) {
+        final int n = mSize;
+
+        if (last == 0 || n == 1) {
+            // (C(0) / 2)^2 = 1 / 8
+            final int value = (dct_coeff[0] + 4) >> 3;
+
+            for (int i = 0; i < n * n; ++i)
+                dct_coeff[i] = value;
+
+            return;
+        }
+
+        final int[] basis = mBasis;
+        final int[] ws = mWork;
+
+        // Rows, keeping 6 fractional bits
+        for (int v = 0; v < n; ++v) {
+            if ((rows & (1 << v)) == 0) {
+                for (int x = 0; x < n; ++x)
+                    ws[v * n + x] = 0;
+
+                continue;
+            }
+
+            for (int x = 0; x < n; ++x) {
+                int sum = 0;
+
+                for (int u = 0; u < n; ++u)
+                    sum += basis[x * n + u] * dct_coeff[v * DCT_SIZE + u];
+
+                ws[v * n + x] = (sum + 8) >> 4;
+            }
+        }
+
+        // Columns
+        for (int x = 0; x < n; ++x) {
+            for (int y = 0; y < n; ++y) {
+                int sum = 0;
+
+                for (int v = 0; v < n; ++v)
+                    sum += basis[y * n + v] * ws[v * n + x];
+
+                dct_coeff[y * n + x] = (sum + 32768) >> 16;
+            }
+        }
+    }
+}
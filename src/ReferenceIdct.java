@@ -0,0 +1,62 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+/*
+ * Straightforward separable IDCT on double precision, as defined by the
+ * standard. Too slow for playback; it is the yardstick for the other
+ * implementations. Needs CLDC 1.1.
+ */
+public class ReferenceIdct implements Idct {
+    // mBasis[x][u] = C(u) / 2 * cos((2x + 1) * u * pi / 16)
+    private final double[][] mBasis = new double[DCT_SIZE][DCT_SIZE];
+
+    private final double[] mWork = new double[DCT_DIM];
+
+    public ReferenceIdct() {
+        for (int x = 0; x < DCT_SIZE; ++x) {
+            for (int u = 0; u < DCT_SIZE; ++u) {
+                double scale = (u == 0)? 0.5 / Math.sqrt(2.0) : 0.5;
+
+                mBasis[x][u] = scale * Math.cos((2 * x + 1) * u * Math.PI / 16.0);
+            }
+        }
+    }
+
+    public void calculate(int[] dct_coeff) {
+        final double[] ws = mWork;
+
+        // Rows
+        for (int v = 0; v < DCT_SIZE; ++v) {
+            for (int x = 0; x < DCT_SIZE; ++x) {
+                double sum = 0.0;
+
+                for (int u = 0; u < DCT_SIZE; ++u)
+                    sum += mBasis[x][u] * dct_coeff[v * DCT_SIZE + u];
+
+                ws[v * DCT_SIZE + x] = sum;
+            }
+        }
+
+        // Columns
+        for (int x = 0; x < DCT_SIZE; ++x) {
+            for (int y = 0; y < DCT_SIZE; ++y) {
+                double sum = 0.0;
+
+                for (int v = 0; v < DCT_SIZE; ++v)
+                    sum += mBasis[y][v] * ws[v * DCT_SIZE + x];
+
+                final int sample = (int)Math.floor(sum + 0.5);
+
+                dct_coeff[y * DCT_SIZE + x] = sample < -256? -256 : (sample > 255? 255 : sample);
+            }
+        }
+    }
+
+    public void calculate(int[] dct_coeff, int last, int rows) {
+        calculate(dct_coeff);
+    }
+}
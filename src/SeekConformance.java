@@ -0,0 +1,175 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * Display order test for seeking. The stream is decoded once from the
+ * start, through DisplayOrder as VideoRenderer does, which gives the
+ * temporal references in the order they are shown; within a group of
+ * pictures they must count up one at a time. Then decoding is started
+ * over at every picture with seekToFrame(), and the pictures shown must
+ * be the same sequence from that picture on: the target first, and the
+ * ones after it in order. Targets are counted by picture type, so the
+ * report tells whether I, P and B targets were all covered.
+ *
+ * The stream is an MPEG-1 video stream read as a resource, /video.mpg
+ * as in Player unless another name is given.
+ */
+public class SeekConformance {
+    private static final String TYPES = "IPBD";
+
+    private final byte[] mData;
+
+    private StringBuffer mReport = new StringBuffer();
+
+    public SeekConformance(byte[] data) {
+        mData = data;
+    }
+
+    /*
+     * Collects the pictures shown, each as type << 10 | temporal reference
+     */
+    private static class Display extends Queue {
+        private final DisplayOrder mOrder = new DisplayOrder();
+
+        int[] mShown = new int[64];
+        int mCount = 0;
+
+        public void put(Object obj) {
+            show(mOrder.put((Picture) obj));
+        }
+
+        void flush() {
+            show(mOrder.flush());
+        }
+
+        private void show(Picture picture) {
+            if (picture == null)
+                return;
+
+            if (mCount == mShown.length) {
+                int[] shown = new int[2 * mCount];
+                System.arraycopy(mShown, 0, shown, 0, mCount);
+                mShown = shown;
+            }
+
+            mShown[mCount++] = (picture.mType << 10) | picture.mTime;
+            picture.release();
+        }
+    }
+
+    /*
+     * Decode the whole stream, from the given picture if not negative
+     */
+    private Display decode(int frame) throws IOException {
+        Display display = new Display();
+
+        Decoder decoder = new Decoder(display, new InputBitStream(new ArraySource(mData)), null);
+        decoder.setIndex(StreamIndex.build(new InputBitStream(new ArraySource(mData))));
+
+        if (frame >= 0)
+            decoder.seekToFrame(frame);
+
+        decoder.start();
+        display.flush();
+
+        return display;
+    }
+
+    private static String describe(int[] shown, int offset, int count) {
+        StringBuffer text = new StringBuffer();
+
+        for (int i = offset; i < Math.min(offset + 8, count); ++i)
+            text.append(' ').append(TYPES.charAt((shown[i] >> 10) - 1)).append(shown[i] & 0x3ff);
+
+        return text.toString();
+    }
+
+    /*
+     * Returns true if every seek shows its target first and the rest in
+     * order; details are available from getReport().
+     */
+    public boolean test() throws IOException {
+        mReport.setLength(0);
+
+        Display reference = decode(-1);
+
+        int[] shown = reference.mShown;
+        int count = reference.mCount;
+
+        boolean passed = true;
+
+        for (int i = 1; i < count; ++i) {
+            int time = shown[i] & 0x3ff;
+            int last = shown[i - 1] & 0x3ff;
+
+            // A lower temporal reference starts the next group
+            if (time > last && time != last + 1) {
+                mReport.append("FAIL out of order from the start:").append(describe(shown, i - 1, count)).append('\n');
+                passed = false;
+                break;
+            }
+        }
+
+        int[] targets = new int[TYPES.length()];
+        int[] failures = new int[TYPES.length()];
+
+        for (int n = 0; n < count; ++n) {
+            Display display = decode(n);
+
+            int type = (shown[n] >> 10) - 1;
+            boolean same = display.mCount == count - n;
+
+            for (int i = 0; same && i < display.mCount; ++i)
+                same = display.mShown[i] == shown[n + i];
+
+            ++targets[type];
+
+            if (!same) {
+                ++failures[type];
+
+                mReport.append("FAIL seek to ").append(n).append(": shown")
+                       .append(describe(display.mShown, 0, display.mCount)).append(", expected")
+                       .append(describe(shown, n, count)).append('\n');
+            }
+        }
+
+        for (int k = 0; k < 3; ++k) {
+            mReport.append(TYPES.charAt(k)).append(" targets: ").append(targets[k])
+                   .append(", failed: ").append(failures[k]);
+
+            if (targets[k] == 0)
+                mReport.append(" (not covered by this stream)");
+
+            mReport.append('\n');
+
+            if (failures[k] > 0)
+                passed = false;
+        }
+
+        mReport.append(passed? "PASSED\n" : "FAILED\n");
+
+        return passed;
+    }
+
+    public String getReport() {
+        return mReport.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String name = (args.length > 0)? args[0] : "/video.mpg";
+
+        SeekConformance conformance = new SeekConformance(ArraySource.readResource(name));
+        boolean passed = conformance.test();
+
+        System.out.print(conformance.getReport());
+
+        if (!passed)
+            System.exit(1);
+    }
+}
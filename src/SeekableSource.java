@@ -0,0 +1,16 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * A ByteSource that can be repositioned. After seek() the next window
+ * starts at the given stream offset.
+ */
+public interface SeekableSource extends ByteSource {
+    public void seek(long position) throws IOException;
+}
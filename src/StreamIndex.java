@@ -0,0 +1,193 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * A StreamIndex lists the byte offset of every sequence header, group
+ * of pictures and picture start code in a video stream, together with
+ * the header fields needed to position the decoder: time_code and
+ * closed_gop for groups, coding type and temporal reference for
+ * pictures. It is built by scanning start codes only, and can be saved
+ * next to the stream so later opens don't have to scan again.
+ */
+public class StreamIndex {
+    public static final int SEQUENCE_HEADER   = 0;
+    public static final int GROUP_OF_PICTURES = 1;
+    public static final int PICTURE           = 2;
+
+    // Sidecar file header
+    private static final int MAGIC   = 0x4d504958;	// "MPIX"
+    private static final int VERSION = 1;
+
+    // Entries a sidecar may hold, over 40 hours of pictures at 25 Hz
+    private static final int MAX_ENTRIES = 1 << 22;
+
+    /*
+     * Each entry is a stream offset and a packed word:
+     *
+     * bits 30-31   entry type
+     * GOP:         bits 0-24 time_code, bit 25 closed_gop, bit 26 broken_link
+     * Picture:     bits 0-9 temporal_reference, bits 10-12 picture_coding_type
+     */
+    private long[] mOffsets;
+    private int[] mInfo;
+    private int mCount = 0;
+
+    private StreamIndex(int capacity) {
+        mOffsets = new long[capacity];
+        mInfo    = new int[capacity];
+    }
+
+    /*
+     * Scan the stream from its current position to its end. Sequences
+     * may follow each other, so sequence end codes don't stop the scan.
+     * Only start codes and the headers listed above are read.
+     */
+    public static StreamIndex build(InputBitStream input) throws IOException {
+        StreamIndex index = new StreamIndex(256);
+
+        try {
+            while (true) {
+                input.nextStartCode();
+
+                long offset = input.getPosition();
+                int code = input.getBits(32);
+
+                if (code == Decoder.PICTURE_START_CODE) {
+                    int temporalReference = input.getBits(10);
+                    int pictureCodingType = input.getBits(3);
+
+                    index.add(offset, (PICTURE << 30) | (pictureCodingType << 10) | temporalReference);
+                }
+                else if (code == Decoder.GROUP_START_CODE) {
+                    int timeCode = input.getBits(25);
+                    int closedGop = input.getBits(1);
+                    int brokenLink = input.getBits(1);
+
+                    index.add(offset, (GROUP_OF_PICTURES << 30) | (brokenLink << 26) | (closedGop << 25) | timeCode);
+                }
+                else if (code == Decoder.SEQUENCE_HEADER_CODE) {
+                    index.add(offset, SEQUENCE_HEADER << 30);
+                }
+            }
+        }
+        catch (EOFException ignore) {}
+
+        return index;
+    }
+
+    private void add(long offset, int info) {
+        if (mCount == mInfo.length) {
+            long[] offsets = new long[mCount << 1];
+            int[] info2    = new int[mCount << 1];
+
+            System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+            System.arraycopy(mInfo, 0, info2, 0, mCount);
+
+            mOffsets = offsets;
+            mInfo    = info2;
+        }
+
+        mOffsets[mCount] = offset;
+        mInfo[mCount]    = info;
+        ++mCount;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getType(int entry) {
+        return mInfo[entry] >>> 30;
+    }
+
+    public long getOffset(int entry) {
+        return mOffsets[entry];
+    }
+
+    /*
+     * Group of pictures fields
+     */
+    public int getTimeCode(int entry) {
+        return mInfo[entry] & 0x1ffffff;
+    }
+
+    public boolean isClosedGop(int entry) {
+        return (mInfo[entry] & (1 << 25)) != 0;
+    }
+
+    public boolean isBrokenLink(int entry) {
+        return (mInfo[entry] & (1 << 26)) != 0;
+    }
+
+    /*
+     * Picture fields
+     */
+    public int getPictureCodingType(int entry) {
+        return (mInfo[entry] >>> 10) & 0x7;
+    }
+
+    public int getTemporalReference(int entry) {
+        return mInfo[entry] & 0x3ff;
+    }
+
+    /*
+     * Sidecar layout: magic, version, entry count, then one
+     * (offset, info) pair per entry.
+     */
+    public void save(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mCount);
+
+        for (int i = 0; i < mCount; ++i) {
+            out.writeLong(mOffsets[i]);
+            out.writeInt(mInfo[i]);
+        }
+
+        out.flush();
+    }
+
+    /*
+     * The entry count is checked before anything is allocated, and the
+     * arrays grow as entries are read, so a corrupt count can't cause a
+     * huge allocation. A damaged sidecar gives an IOException.
+     */
+    public static StreamIndex load(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("Not a stream index");
+
+        int count = in.readInt();
+
+        if (count < 0 || count > MAX_ENTRIES)
+            throw new IOException("Invalid stream index entry count");
+
+        StreamIndex index = new StreamIndex(Math.max(Math.min(count, 256), 1));
+
+        try {
+            for (int i = 0; i < count; ++i) {
+                long offset = in.readLong();
+                int info = in.readInt();
+
+                if (offset < 0 || (info >>> 30) > PICTURE)
+                    throw new IOException("Invalid stream index entry");
+
+                index.add(offset, info);
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException("Truncated stream index");
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * Reads a stream in fixed size chunks. Every window is a fresh read
+ * into the same buffer; nothing is carried over between reads since
+ * the bit stream consumes whole windows.
+ */
+public class StreamSource implements ByteSource {
+    public static final int BUFFER_SIZE = 16384;
+
+    private InputStream mInput;
+    private byte[] mBuffer;
+
+    public StreamSource(InputStream input) {
+        this(input, BUFFER_SIZE);
+    }
+
+    public StreamSource(InputStream input, int bufferSize) {
+        mInput  = input;
+        mBuffer = new byte[bufferSize];
+    }
+
+    public int read() throws IOException {
+        return mInput.read(mBuffer, 0, mBuffer.length);
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getOffset() {
+        return 0;
+    }
+
+    public void close() {
+        try {
+            mInput.close();
+        }
+        catch (IOException ignore) {}
+    }
+}
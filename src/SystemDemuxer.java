@@ -0,0 +1,277 @@
+/*
+ * J2ME_MPEG: MPEG-1 decoder for J2ME
+ *
+ * Copyright (c) 2009 David Caabeiro
+ *
+ */
+
+import java.io.*;
+
+/*
+ * An MPEG-1 system stream (ISO/IEC 11172-1) is made of packs, each
+ * starting with a pack header carrying the system clock reference
+ * (SCR), optionally a system header, and packets. A packet holds data
+ * of a single elementary stream and may carry the presentation and
+ * decoding time stamps (PTS/DTS) of the first access unit starting in
+ * it.
+ *
+ * The demuxer reads packs from another ByteSource and hands out the
+ * payload of the selected video stream as windows of the underlying
+ * buffers, so the video data is never copied. Time stamps are kept
+ * together with the video stream offset where their packet starts, and
+ * the Decoder attaches them to the pictures starting there.
+ */
+public class SystemDemuxer implements ByteSource {
+    private static final int ISO_11172_END_CODE = 0x000001b9;
+    private static final int PACK_START_CODE    = 0x000001ba;
+    private static final int SYSTEM_HEADER_CODE = 0x000001bb;
+
+    private static final int PADDING_STREAM   = 0xbe;
+    private static final int PRIVATE_STREAM_2 = 0xbf;
+
+    // First video stream
+    public static final int VIDEO_STREAM = 0xe0;
+
+    public static final long NO_TIME_STAMP = -1;
+
+    private ByteSource mSource;
+    private int mStreamId;
+
+    // Current window of the underlying source
+    private byte[] mBuffer;
+    private int mIndex = 0;
+    private int mEnd = 0;
+
+    private int mWindowOffset;  // Start of the window handed to the bit stream
+    private int mPayloadLeft = 0;
+    private long mVideoPosition = 0;    // Video bytes handed out so far
+
+    private long mScr = NO_TIME_STAMP;
+    private boolean mEndOfStream = false;
+
+    // Pending time stamps, in stream order
+    private long[] mPositions  = new long[16];
+    private long[] mPts        = new long[16];
+    private long[] mDts        = new long[16];
+    private long[] mScrs       = new long[16];
+    private int mFirst = 0;
+    private int mCount = 0;
+
+    public SystemDemuxer(ByteSource source) {
+        this(source, VIDEO_STREAM);
+    }
+
+    public SystemDemuxer(ByteSource source, int streamId) {
+        mSource   = source;
+        mStreamId = streamId;
+    }
+
+    public int read() throws IOException {
+        if (mEndOfStream)
+            return -1;
+
+        while (mPayloadLeft == 0) {
+            if (!parsePacket()) {
+                mEndOfStream = true;
+                return -1;
+            }
+        }
+
+        if (mIndex == mEnd && !fill())
+            return -1;
+
+        int length = Math.min(mEnd - mIndex, mPayloadLeft);
+
+        mWindowOffset = mIndex;
+        mIndex += length;
+        mPayloadLeft -= length;
+        mVideoPosition += length;
+
+        return length;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getOffset() {
+        return mWindowOffset;
+    }
+
+    public void close() {
+        mSource.close();
+    }
+
+    /*
+     * Parse headers up to the payload of the next packet of the
+     * selected stream. Returns false at the end of the stream.
+     */
+    private boolean parsePacket() throws IOException {
+        try {
+            int code = nextStartCode();
+
+            if (code == ISO_11172_END_CODE)
+                return false;
+
+            if (code == PACK_START_CODE) {
+                // '0010' SCR[32..30] marker SCR[29..15] marker SCR[14..0] marker
+                mScr = readTimeStamp(nextByte());
+                skip(3);	// mux_rate
+                return true;
+            }
+
+            int length = (nextByte() << 8) | nextByte();
+
+            if (code == SYSTEM_HEADER_CODE || (code & 0xff) == PADDING_STREAM || (code & 0xff) == PRIVATE_STREAM_2) {
+                skip(length);
+                return true;
+            }
+
+            // Stuffing bytes
+            int value = nextByte();
+            --length;
+
+            while (value == 0xff) {
+                value = nextByte();
+                --length;
+            }
+
+            // STD_buffer_scale and STD_buffer_size
+            if ((value & 0xc0) == 0x40) {
+                nextByte();
+                value = nextByte();
+                length -= 2;
+            }
+
+            long pts = NO_TIME_STAMP;
+            long dts = NO_TIME_STAMP;
+
+            if ((value & 0xf0) == 0x20) {
+                pts = readTimeStamp(value);
+                length -= 4;
+            }
+            else if ((value & 0xf0) == 0x30) {
+                pts = readTimeStamp(value);
+                dts = readTimeStamp(nextByte());
+                length -= 9;
+            }
+
+            if ((code & 0xff) != mStreamId) {
+                skip(length);
+                return true;
+            }
+
+            if (pts != NO_TIME_STAMP)
+                addTimeStamp(mVideoPosition, pts, dts == NO_TIME_STAMP? pts : dts, mScr);
+
+            mPayloadLeft = length;
+            return true;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /*
+     * 33-bit time stamp in three parts separated by marker bits.
+     * The first byte has already been read.
+     */
+    private long readTimeStamp(int first) throws IOException {
+        long value = (first >> 1) & 0x7;
+
+        value = (value << 15) | (((nextByte() << 8) | nextByte()) >> 1);
+        value = (value << 15) | (((nextByte() << 8) | nextByte()) >> 1);
+
+        return value;
+    }
+
+    private int nextStartCode() throws IOException {
+        int code = 0xffffffff;
+
+        do {
+            code = (code << 8) | nextByte();
+        } while ((code & 0xffffff00) != 0x00000100);
+
+        return code;
+    }
+
+    private boolean fill() throws IOException {
+        int length = mSource.read();
+
+        if (length <= 0)
+            return false;
+
+        mBuffer = mSource.getBuffer();
+        mIndex  = mSource.getOffset();
+        mEnd    = mIndex + length;
+
+        return true;
+    }
+
+    private int nextByte() throws IOException {
+        if (mIndex == mEnd && !fill())
+            throw new EOFException();
+
+        return mBuffer[mIndex++] & 0xff;
+    }
+
+    private void skip(int count) throws IOException {
+        while (count > 0) {
+            if (mIndex == mEnd && !fill())
+                throw new EOFException();
+
+            int length = Math.min(mEnd - mIndex, count);
+
+            mIndex += length;
+            count -= length;
+        }
+    }
+
+    private void addTimeStamp(long position, long pts, long dts, long scr) {
+        if (mCount == mPositions.length) {
+            int size = mCount << 1;
+
+            mPositions = grow(mPositions, size);
+            mPts       = grow(mPts, size);
+            mDts       = grow(mDts, size);
+            mScrs      = grow(mScrs, size);
+            mFirst     = 0;
+        }
+
+        int i = (mFirst + mCount) % mPositions.length;
+
+        mPositions[i] = position;
+        mPts[i]       = pts;
+        mDts[i]       = dts;
+        mScrs[i]      = scr;
+        ++mCount;
+    }
+
+    // Unroll the ring into a larger array
+    private long[] grow(long[] ring, int size) {
+        long[] array = new long[size];
+
+        for (int i = 0; i < mCount; ++i)
+            array[i] = ring[(mFirst + i) % ring.length];
+
+        return array;
+    }
+
+    /*
+     * Attach the time stamps that apply to a picture whose start code
+     * begins at the given video stream offset: those of the last packet
+     * starting at or before it. Older entries are dropped.
+     */
+    public void getTimeStamps(long position, Picture picture) {
+        picture.mPts = picture.mDts = picture.mScr = NO_TIME_STAMP;
+
+        while (mCount > 0 && mPositions[mFirst] <= position) {
+            picture.mPts = mPts[mFirst];
+            picture.mDts = mDts[mFirst];
+            picture.mScr = mScrs[mFirst];
+
+            mFirst = (mFirst + 1) % mPositions.length;
+            --mCount;
+        }
+    }
+}
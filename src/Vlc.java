@@ -338,391 +338,255 @@ public class Vlc {
 		return value >> 4;
 	}
 
-
-	/* Decoding tables for dct_coeff_first & dct_coeff_next
+	/* Decoding tables for dct_coeff_first & dct_coeff_next (Table B.5c-f)
+	 *
+	 * Each row is a variable length code without its trailing sign bit,
+	 * its length, and the run and level it stands for. They are expanded
+	 * once into three flat lookup tables indexed by a single 17-bit peek
+	 * (the longest code plus its sign), split on the number of leading
+	 * zeros so that the tables stay small:
 	 *
-	 * This were originally 15 arrays. Now they are merged to form a single array,
-	 * and using a scale to retrieve data from the correct array of coefficients.
+	 *   1 to 3 leading zeros (or none):	bits 16-8, codes up to 9 bits
+	 *   4 to 7 leading zeros:				bits 12-4, codes up to 13 bits
+	 *   8 or more leading zeros:			bits 8-0,  codes up to 17 bits
+	 *
+	 * Entries are packed as level << 16 | run << 8 | length (sign included),
+	 * so that shifting out the length leaves the value decodeDCTCoeff
+	 * returns. Zero marks end_of_block or an invalid code. "1s" for
+	 * dct_coeff_first is handled apart.
 	 */
-
-	// Total number of entries 16 * 32 = 512
-	// First 32 entries are not used in fact
-
-	private static final byte[][] dct_coeff = {
-		// 0000 0000 0000 xxxx x
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-		{0, 0, 0}, {0, 0, 0}, {0, 0, 0}, {0, 0, 0},
-
-		// 0000 0000 0001 xxxx s
-		{1, 18, 17}, {1, -18, 17}, {1, 17, 17}, {1, -17, 17},
-		{1, 16, 17}, {1, -16, 17}, {1, 15, 17}, {1, -15, 17},
-		{6,  3, 17}, {6,  -3, 17}, {16, 2, 17}, {16, -2, 17},
-		{15, 2, 17}, {15, -2, 17}, {14, 2, 17}, {14, -2, 17},
-		{13, 2, 17}, {13, -2, 17}, {12, 2, 17}, {12, -2, 17},
-		{11, 2, 17}, {11, -2, 17}, {31, 1, 17}, {31, -1, 17},
-		{30, 1, 17}, {30, -1, 17}, {29, 1, 17}, {29, -1, 17},
-		{28, 1, 17}, {28, -1, 17}, {27, 1, 17}, {27, -1, 17},
-
-		// 0000 0000 0010 xxxs x
-		{0, 40, 16}, {0, 40, 16}, {0, -40, 16}, {0, -40, 16},
-		{0, 39, 16}, {0, 39, 16}, {0, -39, 16}, {0, -39, 16},
-		{0, 38, 16}, {0, 38, 16}, {0, -38, 16}, {0, -38, 16},
-		{0, 37, 16}, {0, 37, 16}, {0, -37, 16}, {0, -37, 16},
-		{0, 36, 16}, {0, 36, 16}, {0, -36, 16}, {0, -36, 16},
-		{0, 35, 16}, {0, 35, 16}, {0, -35, 16}, {0, -35, 16},
-		{0, 34, 16}, {0, 34, 16}, {0, -34, 16}, {0, -34, 16},
-		{0, 33, 16}, {0, 33, 16}, {0, -33, 16}, {0, -33, 16},
-
-		// 0000 0000 0011 xxxs x
-		{0, 32, 16}, {0, 32, 16}, {0, -32, 16}, {0, -32, 16},
-		{1, 14, 16}, {1, 14, 16}, {1, -14, 16}, {1, -14, 16},
-		{1, 13, 16}, {1, 13, 16}, {1, -13, 16}, {1, -13, 16},
-		{1, 12, 16}, {1, 12, 16}, {1, -12, 16}, {1, -12, 16},
-		{1, 11, 16}, {1, 11, 16}, {1, -11, 16}, {1, -11, 16},
-		{1, 10, 16}, {1, 10, 16}, {1, -10, 16}, {1, -10, 16},
-		{1,  9, 16}, {1,  9, 16}, {1,  -9, 16}, {1,  -9, 16},
-		{1,  8, 16}, {1,  8, 16}, {1,  -8, 16}, {1,  -8, 16},
-
-		// 0000 0000 0100 xxsx x
-		{0,  31, 15}, {0,  31, 15}, {0,  31, 15}, {0,  31, 15},
-		{0, -31, 15}, {0, -31, 15}, {0, -31, 15}, {0, -31, 15},
-		{0,  30, 15}, {0,  30, 15}, {0,  30, 15}, {0,  30, 15},
-		{0, -30, 15}, {0, -30, 15}, {0, -30, 15}, {0, -30, 15},
-		{0,  29, 15}, {0,  29, 15}, {0,  29, 15}, {0,  29, 15},
-		{0, -29, 15}, {0, -29, 15}, {0, -29, 15}, {0, -29, 15},
-		{0,  28, 15}, {0,  28, 15}, {0,  28, 15}, {0,  28, 15},
-		{0, -28, 15}, {0, -28, 15}, {0, -28, 15}, {0, -28, 15},
-
-		// 0000 0000 0101 xxsx x
-		{0,  27, 15}, {0,  27, 15}, {0,  27, 15}, {0,  27, 15},
-    	{0, -27, 15}, {0, -27, 15}, {0, -27, 15}, {0, -27, 15},
-    	{0,  26, 15}, {0,  26, 15}, {0,  26, 15}, {0,  26, 15},
-    	{0, -26, 15}, {0, -26, 15}, {0, -26, 15}, {0, -26, 15},
-    	{0,  25, 15}, {0,  25, 15}, {0,  25, 15}, {0,  25, 15},
-    	{0, -25, 15}, {0, -25, 15}, {0, -25, 15}, {0, -25, 15},
-    	{0,  24, 15}, {0,  24, 15}, {0,  24, 15}, {0,  24, 15},
-    	{0, -24, 15}, {0, -24, 15}, {0, -24, 15}, {0, -24, 15},
-
-    	// 0000 0000 0110 xxsx x
-    	{0,  23, 15}, {0,  23, 15}, {0,  23, 15}, {0,  23, 15},
-    	{0, -23, 15}, {0, -23, 15}, {0, -23, 15}, {0, -23, 15},
-    	{0,  22, 15}, {0,  22, 15}, {0,  22, 15}, {0,  22, 15},
-    	{0, -22, 15}, {0, -22, 15}, {0, -22, 15}, {0, -22, 15},
-    	{0,  21, 15}, {0,  21, 15}, {0,  21, 15}, {0,  21, 15},
-    	{0, -21, 15}, {0, -21, 15}, {0, -21, 15}, {0, -21, 15},
-    	{0,  20, 15}, {0,  20, 15}, {0,  20, 15}, {0,  20, 15},
-    	{0, -20, 15}, {0, -20, 15}, {0, -20, 15}, {0, -20, 15},
-
-    	// 0000 0000 0111 xxsx x
-    	{0,  19, 15}, {0,  19, 15}, {0,  19, 15}, {0,  19, 15},
-    	{0, -19, 15}, {0, -19, 15}, {0, -19, 15}, {0, -19, 15},
-    	{0,  18, 15}, {0,  18, 15}, {0,  18, 15}, {0,  18, 15},
-    	{0, -18, 15}, {0, -18, 15}, {0, -18, 15}, {0, -18, 15},
-    	{0,  17, 15}, {0,  17, 15}, {0,  17, 15}, {0,  17, 15},
-    	{0, -17, 15}, {0, -17, 15}, {0, -17, 15}, {0, -17, 15},
-    	{0,  16, 15}, {0,  16, 15}, {0,  16, 15}, {0,  16, 15},
-    	{0, -16, 15}, {0, -16, 15}, {0, -16, 15}, {0, -16, 15},
-
-    	// 0000 0000 1000 xsxx x
-    	{10,  2, 14}, {10,  2, 14}, {10,  2, 14}, {10,  2, 14},
-    	{10,  2, 14}, {10,  2, 14}, {10,  2, 14}, {10,  2, 14},
-    	{10, -2, 14}, {10, -2, 14}, {10, -2, 14}, {10, -2, 14},
-    	{10, -2, 14}, {10, -2, 14}, {10, -2, 14}, {10, -2, 14},
-    	{ 9,  2, 14}, { 9,  2, 14}, { 9,  2, 14}, { 9,  2, 14},
-    	{ 9,  2, 14}, { 9,  2, 14}, { 9,  2, 14}, { 9,  2, 14},
-    	{ 9, -2, 14}, { 9, -2, 14}, { 9, -2, 14}, { 9, -2, 14},
-    	{ 9, -2, 14}, { 9, -2, 14}, { 9, -2, 14}, { 9, -2, 14},
-
-    	// 0000 0000 1001 xsxx x
-    	{5,  3, 14}, {5,  3, 14}, {5,  3, 14}, {5,  3, 14},
-    	{5,  3, 14}, {5,  3, 14}, {5,  3, 14}, {5,  3, 14},
-    	{5, -3, 14}, {5, -3, 14}, {5, -3, 14}, {5, -3, 14},
-    	{5, -3, 14}, {5, -3, 14}, {5, -3, 14}, {5, -3, 14},
-    	{3,  4, 14}, {3,  4, 14}, {3,  4, 14}, {3,  4, 14},
-    	{3,  4, 14}, {3,  4, 14}, {3,  4, 14}, {3,  4, 14},
-    	{3, -4, 14}, {3, -4, 14}, {3, -4, 14}, {3, -4, 14},
-    	{3, -4, 14}, {3, -4, 14}, {3, -4, 14}, {3, -4, 14},
-
-    	// 0000 0000 1010 xsxx x
-    	{2,  5, 14}, {2,  5, 14}, {2,  5, 14}, {2,  5, 14},
-    	{2,  5, 14}, {2,  5, 14}, {2,  5, 14}, {2,  5, 14},
-    	{2, -5, 14}, {2, -5, 14}, {2, -5, 14}, {2, -5, 14},
-    	{2, -5, 14}, {2, -5, 14}, {2, -5, 14}, {2, -5, 14},
-    	{1,  7, 14}, {1,  7, 14}, {1,  7, 14}, {1,  7, 14},
-    	{1,  7, 14}, {1,  7, 14}, {1,  7, 14}, {1,  7, 14},
-    	{1, -7, 14}, {1, -7, 14}, {1, -7, 14}, {1, -7, 14},
-    	{1, -7, 14}, {1, -7, 14}, {1, -7, 14}, {1, -7, 14},
-
-    	// 0000 0000 1011 xsxx x
-    	{1,   6, 14}, {1,   6, 14}, {1,   6, 14}, {1,   6, 14},
-    	{1,   6, 14}, {1,   6, 14}, {1,   6, 14}, {1,   6, 14},
-    	{1,  -6, 14}, {1,  -6, 14}, {1,  -6, 14}, {1,  -6, 14},
-    	{1,  -6, 14}, {1,  -6, 14}, {1,  -6, 14}, {1,  -6, 14},
-    	{0,  15, 14}, {0,  15, 14}, {0,  15, 14}, {0,  15, 14},
-    	{0,  15, 14}, {0,  15, 14}, {0,  15, 14}, {0,  15, 14},
-    	{0, -15, 14}, {0, -15, 14}, {0, -15, 14}, {0, -15, 14},
-    	{0, -15, 14}, {0, -15, 14}, {0, -15, 14}, {0, -15, 14},
-
-    	// 0000 0000 1100 xsxx x
-    	{0,  14, 14}, {0,  14, 14}, {0,  14, 14}, {0,  14, 14},
-    	{0,  14, 14}, {0,  14, 14}, {0,  14, 14}, {0,  14, 14},
-    	{0, -14, 14}, {0, -14, 14}, {0, -14, 14}, {0, -14, 14},
-    	{0, -14, 14}, {0, -14, 14}, {0, -14, 14}, {0, -14, 14},
-    	{0,  13, 14}, {0,  13, 14}, {0,  13, 14}, {0,  13, 14},
-    	{0,  13, 14}, {0,  13, 14}, {0,  13, 14}, {0,  13, 14},
-    	{0, -13, 14}, {0, -13, 14}, {0, -13, 14}, {0, -13, 14},
-    	{0, -13, 14}, {0, -13, 14}, {0, -13, 14}, {0, -13, 14},
-
-    	// 0000 0000 1101 xsxx x
-    	{0,  12, 14}, {0,  12, 14}, {0,  12, 14}, {0,  12, 14},
-    	{0,  12, 14}, {0,  12, 14}, {0,  12, 14}, {0,  12, 14},
-    	{0, -12, 14}, {0, -12, 14}, {0, -12, 14}, {0, -12, 14},
-    	{0, -12, 14}, {0, -12, 14}, {0, -12, 14}, {0, -12, 14},
-    	{26,  1, 14}, {26,  1, 14}, {26,  1, 14}, {26,  1, 14},
-    	{26,  1, 14}, {26,  1, 14}, {26,  1, 14}, {26,  1, 14},
-    	{26, -1, 14}, {26, -1, 14}, {26, -1, 14}, {26, -1, 14},
-    	{26, -1, 14}, {26, -1, 14}, {26, -1, 14}, {26, -1, 14},
-
-    	// 0000 0000 1110 xsxx x
-    	{25,  1, 14}, {25,  1, 14}, {25,  1, 14}, {25,  1, 14},
-    	{25,  1, 14}, {25,  1, 14}, {25,  1, 14}, {25,  1, 14},
-    	{25, -1, 14}, {25, -1, 14}, {25, -1, 14}, {25, -1, 14},
-    	{25, -1, 14}, {25, -1, 14}, {25, -1, 14}, {25, -1, 14},
-    	{24,  1, 14}, {24,  1, 14}, {24,  1, 14}, {24,  1, 14},
-    	{24,  1, 14}, {24,  1, 14}, {24,  1, 14}, {24,  1, 14},
-    	{24, -1, 14}, {24, -1, 14}, {24, -1, 14}, {24, -1, 14},
-    	{24, -1, 14}, {24, -1, 14}, {24, -1, 14}, {24, -1, 14},
-
-    	// 0000 0000 1111 xsxx x
-    	{23,  1, 14}, {23,  1, 14}, {23,  1, 14}, {23,  1, 14},
-    	{23,  1, 14}, {23,  1, 14}, {23,  1, 14}, {23,  1, 14},
-    	{23, -1, 14}, {23, -1, 14}, {23, -1, 14}, {23, -1, 14},
-    	{23, -1, 14}, {23, -1, 14}, {23, -1, 14}, {23, -1, 14},
-    	{22,  1, 14}, {22,  1, 14}, {22,  1, 14}, {22,  1, 14},
-    	{22,  1, 14}, {22,  1, 14}, {22,  1, 14}, {22,  1, 14},
-    	{22, -1, 14}, {22, -1, 14}, {22, -1, 14}, {22, -1, 14},
-    	{22, -1, 14}, {22, -1, 14}, {22, -1, 14}, {22, -1, 14}
-	};
-
-	// 0000 0001 xxxx s??? ?
-	private static final byte[][] dct_coeff1 = {
-		{0, 11, 13}, {0, -11, 13}, {8,  2, 13}, {8,  -2, 13},
-		{4,  3, 13}, {4,  -3, 13}, {0, 10, 13}, {0, -10, 13},
-		{2,  4, 13}, {2,  -4, 13}, {7,  2, 13}, {7,  -2, 13},
-		{21, 1, 13}, {21, -1, 13}, {20, 1, 13}, {20, -1, 13},
-		{0,  9, 13}, {0,  -9, 13}, {19, 1, 13}, {19, -1, 13},
-		{18, 1, 13}, {18, -1, 13}, {1,  5, 13}, {1,  -5, 13},
-		{3,  3, 13}, {3,  -3, 13}, {0,  8, 13}, {0,  -8, 13},
-		{6,  2, 13}, {6,  -2, 13}, {17, 1, 13}, {17, -1, 13}
-	};
-
-	// 0000 0010 xxs? ???? ?
-	private static final byte[][] dct_coeff2 = {
-		{16, 1, 11}, {16, -1, 11}, {5, 2, 11}, {5, -2, 11},
-		{ 0, 7, 11}, { 0, -7, 11}, {2, 3, 11}, {2, -3, 11}
+	private static final short[][] dct_coeff = {
+		{0x0003,  2,  0,  1},	// 11 s
+		{0x0003,  3,  1,  1},	// 011 s
+		{0x0004,  4,  0,  2},	// 0100 s
+		{0x0005,  4,  2,  1},	// 0101 s
+		{0x0005,  5,  0,  3},	// 0010 1 s
+		{0x0006,  5,  4,  1},	// 0011 0 s
+		{0x0007,  5,  3,  1},	// 0011 1 s
+		{0x0004,  6,  7,  1},	// 0001 00 s
+		{0x0005,  6,  6,  1},	// 0001 01 s
+		{0x0006,  6,  1,  2},	// 0001 10 s
+		{0x0007,  6,  5,  1},	// 0001 11 s
+		{0x0004,  7,  2,  2},	// 0000 100 s
+		{0x0005,  7,  9,  1},	// 0000 101 s
+		{0x0006,  7,  0,  4},	// 0000 110 s
+		{0x0007,  7,  8,  1},	// 0000 111 s
+		{0x0020,  8, 13,  1},	// 0010 0000 s
+		{0x0021,  8,  0,  6},	// 0010 0001 s
+		{0x0022,  8, 12,  1},	// 0010 0010 s
+		{0x0023,  8, 11,  1},	// 0010 0011 s
+		{0x0024,  8,  3,  2},	// 0010 0100 s
+		{0x0025,  8,  1,  3},	// 0010 0101 s
+		{0x0026,  8,  0,  5},	// 0010 0110 s
+		{0x0027,  8, 10,  1},	// 0010 0111 s
+		{0x0008, 10, 16,  1},	// 0000 0010 00 s
+		{0x0009, 10,  5,  2},	// 0000 0010 01 s
+		{0x000a, 10,  0,  7},	// 0000 0010 10 s
+		{0x000b, 10,  2,  3},	// 0000 0010 11 s
+		{0x000c, 10,  1,  4},	// 0000 0011 00 s
+		{0x000d, 10, 15,  1},	// 0000 0011 01 s
+		{0x000e, 10, 14,  1},	// 0000 0011 10 s
+		{0x000f, 10,  4,  2},	// 0000 0011 11 s
+		{0x0010, 12,  0, 11},	// 0000 0001 0000 s
+		{0x0011, 12,  8,  2},	// 0000 0001 0001 s
+		{0x0012, 12,  4,  3},	// 0000 0001 0010 s
+		{0x0013, 12,  0, 10},	// 0000 0001 0011 s
+		{0x0014, 12,  2,  4},	// 0000 0001 0100 s
+		{0x0015, 12,  7,  2},	// 0000 0001 0101 s
+		{0x0016, 12, 21,  1},	// 0000 0001 0110 s
+		{0x0017, 12, 20,  1},	// 0000 0001 0111 s
+		{0x0018, 12,  0,  9},	// 0000 0001 1000 s
+		{0x0019, 12, 19,  1},	// 0000 0001 1001 s
+		{0x001a, 12, 18,  1},	// 0000 0001 1010 s
+		{0x001b, 12,  1,  5},	// 0000 0001 1011 s
+		{0x001c, 12,  3,  3},	// 0000 0001 1100 s
+		{0x001d, 12,  0,  8},	// 0000 0001 1101 s
+		{0x001e, 12,  6,  2},	// 0000 0001 1110 s
+		{0x001f, 12, 17,  1},	// 0000 0001 1111 s
+		{0x0010, 13, 10,  2},	// 0000 0000 1000 0 s
+		{0x0011, 13,  9,  2},	// 0000 0000 1000 1 s
+		{0x0012, 13,  5,  3},	// 0000 0000 1001 0 s
+		{0x0013, 13,  3,  4},	// 0000 0000 1001 1 s
+		{0x0014, 13,  2,  5},	// 0000 0000 1010 0 s
+		{0x0015, 13,  1,  7},	// 0000 0000 1010 1 s
+		{0x0016, 13,  1,  6},	// 0000 0000 1011 0 s
+		{0x0017, 13,  0, 15},	// 0000 0000 1011 1 s
+		{0x0018, 13,  0, 14},	// 0000 0000 1100 0 s
+		{0x0019, 13,  0, 13},	// 0000 0000 1100 1 s
+		{0x001a, 13,  0, 12},	// 0000 0000 1101 0 s
+		{0x001b, 13, 26,  1},	// 0000 0000 1101 1 s
+		{0x001c, 13, 25,  1},	// 0000 0000 1110 0 s
+		{0x001d, 13, 24,  1},	// 0000 0000 1110 1 s
+		{0x001e, 13, 23,  1},	// 0000 0000 1111 0 s
+		{0x001f, 13, 22,  1},	// 0000 0000 1111 1 s
+		{0x0010, 14,  0, 31},	// 0000 0000 0100 00 s
+		{0x0011, 14,  0, 30},	// 0000 0000 0100 01 s
+		{0x0012, 14,  0, 29},	// 0000 0000 0100 10 s
+		{0x0013, 14,  0, 28},	// 0000 0000 0100 11 s
+		{0x0014, 14,  0, 27},	// 0000 0000 0101 00 s
+		{0x0015, 14,  0, 26},	// 0000 0000 0101 01 s
+		{0x0016, 14,  0, 25},	// 0000 0000 0101 10 s
+		{0x0017, 14,  0, 24},	// 0000 0000 0101 11 s
+		{0x0018, 14,  0, 23},	// 0000 0000 0110 00 s
+		{0x0019, 14,  0, 22},	// 0000 0000 0110 01 s
+		{0x001a, 14,  0, 21},	// 0000 0000 0110 10 s
+		{0x001b, 14,  0, 20},	// 0000 0000 0110 11 s
+		{0x001c, 14,  0, 19},	// 0000 0000 0111 00 s
+		{0x001d, 14,  0, 18},	// 0000 0000 0111 01 s
+		{0x001e, 14,  0, 17},	// 0000 0000 0111 10 s
+		{0x001f, 14,  0, 16},	// 0000 0000 0111 11 s
+		{0x0010, 15,  0, 40},	// 0000 0000 0010 000 s
+		{0x0011, 15,  0, 39},	// 0000 0000 0010 001 s
+		{0x0012, 15,  0, 38},	// 0000 0000 0010 010 s
+		{0x0013, 15,  0, 37},	// 0000 0000 0010 011 s
+		{0x0014, 15,  0, 36},	// 0000 0000 0010 100 s
+		{0x0015, 15,  0, 35},	// 0000 0000 0010 101 s
+		{0x0016, 15,  0, 34},	// 0000 0000 0010 110 s
+		{0x0017, 15,  0, 33},	// 0000 0000 0010 111 s
+		{0x0018, 15,  0, 32},	// 0000 0000 0011 000 s
+		{0x0019, 15,  1, 14},	// 0000 0000 0011 001 s
+		{0x001a, 15,  1, 13},	// 0000 0000 0011 010 s
+		{0x001b, 15,  1, 12},	// 0000 0000 0011 011 s
+		{0x001c, 15,  1, 11},	// 0000 0000 0011 100 s
+		{0x001d, 15,  1, 10},	// 0000 0000 0011 101 s
+		{0x001e, 15,  1,  9},	// 0000 0000 0011 110 s
+		{0x001f, 15,  1,  8},	// 0000 0000 0011 111 s
+		{0x0010, 16,  1, 18},	// 0000 0000 0001 0000 s
+		{0x0011, 16,  1, 17},	// 0000 0000 0001 0001 s
+		{0x0012, 16,  1, 16},	// 0000 0000 0001 0010 s
+		{0x0013, 16,  1, 15},	// 0000 0000 0001 0011 s
+		{0x0014, 16,  6,  3},	// 0000 0000 0001 0100 s
+		{0x0015, 16, 16,  2},	// 0000 0000 0001 0101 s
+		{0x0016, 16, 15,  2},	// 0000 0000 0001 0110 s
+		{0x0017, 16, 14,  2},	// 0000 0000 0001 0111 s
+		{0x0018, 16, 13,  2},	// 0000 0000 0001 1000 s
+		{0x0019, 16, 12,  2},	// 0000 0000 0001 1001 s
+		{0x001a, 16, 11,  2},	// 0000 0000 0001 1010 s
+		{0x001b, 16, 31,  1},	// 0000 0000 0001 1011 s
+		{0x001c, 16, 30,  1},	// 0000 0000 0001 1100 s
+		{0x001d, 16, 29,  1},	// 0000 0000 0001 1101 s
+		{0x001e, 16, 28,  1},	// 0000 0000 0001 1110 s
+		{0x001f, 16, 27,  1},	// 0000 0000 0001 1111 s
 	};
 
-	// 0000 0011 xxs? ???? ?
-	private static final byte[][] dct_coeff3 = {
-		{1 , 4, 11}, {1 , -4, 11}, {15, 1, 11}, {15, -1, 11},
-		{14, 1, 11}, {14, -1, 11}, {4 , 2, 11}, {4 , -2, 11}
-	};
-
-	// 0000 xxxs ???? ???? ?
-	private static final byte[][] dct_coeff4 = {
-		{0, 0, 0}, {0,  0, 0}, {0, 0, 0}, {0,  0, 0},
-		{0, 0, 6}, {0,  0, 6}, {0, 0, 6}, {0,  0, 6},     // ESCAPE
-		{2, 2, 8}, {2, -2, 8}, {9, 1, 8}, {9, -1, 8},
-		{0, 4, 8}, {0, -4, 8}, {8, 1, 8}, {8, -1, 8}
-	};
-
-	public class RunLevel {
-		int run;
-		int level;
-	};
-
-	public boolean decodeDCTCoeff(InputBitStream input, boolean first, RunLevel runLevel) throws IOException {
-		int value = input.nextBits(17);
-		int index = (value >> 5) & 0xfff;
+	// 0000 01 followed by 6 bits of run and 8 or 16 bits of level
+	private static final int DCT_ESCAPE = 6;
 
-		int run = 0;
-		int	level = 0;
+	private static final int[] dct_coeff0 = new int[512];
+	private static final int[] dct_coeff1 = new int[512];
+	private static final int[] dct_coeff2 = new int[512];
 
-		int discard = 0;
+	static {
+		for (int i = 0; i < dct_coeff.length; ++i) {
+			int code   = dct_coeff[i][0];
+			int length = dct_coeff[i][1] + 1;
+			int run    = dct_coeff[i][2];
+			int level  = dct_coeff[i][3];
 
-		boolean escape = false;
-
-		if (index >= 0x1 && index <= 0xf) {
-			int offset = (index << 5);    // Multiply by 32, the size of each original array
-			offset += (value & 0x1f);     // Get 5 least significant bits, which determine the offset within each array
-
-			run   = dct_coeff[offset][0];
-			level = dct_coeff[offset][1];
-
-			discard = dct_coeff[offset][2];
+			// Positive level, then negative
+			expandDCTCoeff(code << 1, length, (level << 16) | (run << 8) | length);
+			expandDCTCoeff((code << 1) | 1, length, (-level << 16) | (run << 8) | length);
 		}
-		else if (index >= 0x10 && index <= 0x1f) {
-			// Discard 4 least significant bits
-			int offset = (value >> 4) & 0x1f;
-
-			run   = dct_coeff1[offset][0];
-			level = dct_coeff1[offset][1];
 
-			discard = dct_coeff1[offset][2];
-		}
-		else if (index >= 0x20 && index <= 0x2f) {
-			// Discard 6 least significant bits
-			int offset = (value >> 6) & 0x7;
-
-			run   = dct_coeff2[offset][0];
-			level = dct_coeff2[offset][1];
+		expandDCTCoeff(0x1, 6, DCT_ESCAPE);
+	}
 
-			discard = dct_coeff2[offset][2];
-		}
-		else if (index >= 0x30 && index <= 0x3f) {
-			// Discard 6 least significant bits
-			int offset = (value >> 6) & 0x7;
+	/*
+	 * Fill every entry of the lookup table whose 17-bit prefix is the
+	 * given code
+	 */
+	private static void expandDCTCoeff(int code, int length, int entry) {
+		int start = code << (17 - length);
+		int end   = (code + 1) << (17 - length);
 
-			run   = dct_coeff3[offset][0];
-			level = dct_coeff3[offset][1];
+		int[] table;
+		int shift;
 
-			discard = dct_coeff3[offset][2];
+		if (start >= 0x2000) {
+			table = dct_coeff0;
+			shift = 8;
 		}
-		else if (index >= 0x40 && index <= 0xff) {
-			// Discard 9 least significant bits
-			int offset = (value >> 9) & 0xf;
-
-			if (offset >= 4 && offset <= 7)
-				escape = true;
-
-			run   = dct_coeff4[offset][0];
-			level = dct_coeff4[offset][1];
-
-			discard = dct_coeff4[offset][2];
+		else if (start >= 0x200) {
+			table = dct_coeff1;
+			shift = 4;
 		}
 		else {
-			index = (value >> 13) & 0xf;
-
-			if (index == 0x1) {
-				final byte[][] dct_coeff = {
-					{7, 1, 7}, {7, -1, 7}, {6, 1, 7}, {6, -1, 7},
-					{1, 2, 7}, {1, -2, 7}, {5, 1, 7}, {5, -1, 7}
-				};
-
-				int offset = (value >> 10) & 0x7;
-
-				run   = dct_coeff[offset][0];
-				level = dct_coeff[offset][1];
-
-				discard = dct_coeff[offset][2];
-			}
-			else if (index == 0x2) {
-				final byte[][] dct_coeff = {
-					{13, 1, 9}, {13, -1, 9}, {0, 6, 9}, {0, -6, 9}, {12, 1, 9}, {12, -1, 9}, {11, 1, 9}, {11, -1, 9},
-					{ 3, 2, 9}, { 3, -2, 9}, {1, 3, 9}, {1, -3, 9}, { 0, 5, 9}, { 0, -5, 9}, {10, 1, 9}, {10, -1, 9},
-					{ 0,  3, 6}, { 0,  3, 6}, {0,  3, 6}, {0,  3, 6}, { 0,  3, 6}, { 0,  3, 6}, { 0,  3, 6}, { 0,  3, 6},
-					{ 0, -3, 6}, { 0, -3, 6}, {0, -3, 6}, {0, -3, 6}, { 0, -3, 6}, { 0, -3, 6}, { 0, -3, 6}, { 0, -3, 6},
-				};
-
-				int offset = (value >> 8) & 0x1f;
+			table = dct_coeff2;
+			shift = 0;
+		}
 
-				run   = dct_coeff[offset][0];
-				level = dct_coeff[offset][1];
+		for (int i = start >> shift; i < end >> shift; ++i)
+			table[i] = entry;
+	}
 
-				discard = dct_coeff[offset][2];
-			}
-			else if (index == 0x3) {
-				final byte[][] dct_coeff = {
-					{4, 1, 6}, {4, -1, 6}, {3, 1, 6}, {3, -1, 6}
-				};
+	/*
+	 * Run and level are returned packed in a single int, so that
+	 * decoding a block doesn't need any object to hold them
+	 */
+	public static final int END_OF_BLOCK = 0;
 
-				int offset = (value >> 11) & 0x3;
+	public static int getRun(int runLevel) {
+		return runLevel & 0xff;
+	}
 
-				run   = dct_coeff[offset][0];
-				level = dct_coeff[offset][1];
+	public static int getLevel(int runLevel) {
+		return runLevel >> 8;
+	}
 
-				discard = dct_coeff[offset][2];
-			}
-			else if (index == 0x4) {
-				run   = 0;
-				level = ((value & 0x1000) != 0? -2 : 2);
+	/*
+	 * Decode a run/level pair, packed as level << 8 | run. Returns
+	 * END_OF_BLOCK without consuming any bits at end_of_block, which
+	 * only dct_coeff_next can find (level is never zero otherwise).
+	 */
+	public int decodeDCTCoeff(InputBitStream input, boolean first) throws IOException {
+		int value = input.nextBits(17);
+		int entry;
 
-				discard = 5;
-			}
-			else if (index == 0x5) {
-				run   = 2;
-				level = ((value & 0x1000) != 0? -1 : 1);
+		if (value >= 0x2000) {
+			// "1s" is the first coefficient's own code for run 0, level 1
+			if (first && value >= 0x10000) {
+				input.getBits(2);
 
-				discard = 5;
+				return ((value & 0x8000) != 0? -1 << 8 : 1 << 8);
 			}
-			else if (index == 0x6) {
-				run   = 1;
-				level = 1;
 
-				discard = 4;
-			}
-			else if (index == 0x7) {
-				run   = 1;
-				level = -1;
+			entry = dct_coeff0[value >> 8];
+		}
+		else if (value >= 0x200) {
+			entry = dct_coeff1[value >> 4];
+		}
+		else {
+			entry = dct_coeff2[value];
+		}
 
-				discard = 4;
-			}
-			// Only for CoeffFirst
-			else if (first && index >= 0x8 && index <= 0xb) {
-				run   = 0;
-				level = 1;
+		if (entry == 0)
+			return END_OF_BLOCK;
 
-				discard = 2;
-			}
-			else if (first && index >= 0xc && index <= 0xf)	{
-				run   = 0;
-				level = -1;
+		if (entry == DCT_ESCAPE) {
+			// Escape, run and the first level byte
+			value = input.nextBits(20);
 
-				discard = 2;
-			}
-			// Only for CoeffNext
-			else if (index >= 0xc && index <= 0xd) {
-				run   = 0;
-				level = 1;
+			int run   = (value >> 8) & 0x3f;
+			int level = value & 0xff;
 
-				discard = 3;
+			if (level == 0) {
+				// Escape, run, 0x00 then level 128..255
+				level = input.getBits(28) & 0xff;
 			}
-			else if (index >= 0xe && index <= 0xf) {
-				run   = 0;
-				level = -1;
-
-				discard = 3;
+			else if (level == 0x80) {
+				// Escape, run, 0x80 then level -256..-129
+				level = (input.getBits(28) & 0xff) - 256;
 			}
 			else {
-				return false;
+				input.getBits(20);
+				level = (byte)level;
 			}
-		}
-
-		input.getBits(discard);
-
-		if (escape) {
-			int r = input.getBits(6);
-			run   = r;
 
-			int l = input.nextBits(8);
-			if (l == 0 || l == 0x80) {
-				l = input.getSignedBits(16);
-			}
-			else {
-				l = input.getSignedBits(8);
-			}
-			level = l;
+			return (level << 8) | run;
 		}
 
-		runLevel.run   = run;
-		runLevel.level = level;
+		input.getBits(entry & 0xff);
 
-		return true;
+		return entry >> 8;
 	}
 }